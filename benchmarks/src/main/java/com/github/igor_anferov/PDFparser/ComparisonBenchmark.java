@@ -0,0 +1,77 @@
+package com.github.igor_anferov.PDFparser;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ComparisonBenchmark {
+    private Line[] neighbours;
+    private Line[] pageEdges;
+    private Style[] styles;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        Document document;
+        try (PDDocument pdf = Fixtures.load(Fixtures.FILING)) {
+            document = IngestRecording.record(pdf).replay();
+        }
+        List<Line> lines = new ArrayList<>();
+        for (Block block : document.blocks)
+            lines.addAll(block.lines);
+        neighbours = lines.toArray(new Line[0]);
+
+        List<Line> edges = new ArrayList<>();
+        for (int i = 1; i < document.eopBlocks.size(); i++) {
+            edges.add(document.blocks.get(document.eopBlocks.get(i - 1) + 1).getFirstLine());
+            edges.add(document.blocks.get(document.eopBlocks.get(i)).getLastLine());
+        }
+        pageEdges = edges.toArray(new Line[0]);
+
+        List<Style> all = new ArrayList<>();
+        for (int id = 0; id < document.styles.size(); id++)
+            for (Style.AlignType align : Style.AlignType.values())
+                all.add(document.styles.get(id).withAlign(align));
+        styles = all.toArray(new Style[0]);
+    }
+
+    @Benchmark
+    public void almostEqualsNeighbours(Blackhole blackhole)
+    {
+        for (int i = 1; i < neighbours.length; i++)
+            blackhole.consume(neighbours[i - 1].AlmostEquals(neighbours[i]));
+    }
+
+    @Benchmark
+    public void almostEqualsPageEdges(Blackhole blackhole)
+    {
+        for (int i = 2; i < pageEdges.length; i++)
+            blackhole.consume(pageEdges[i - 2].AlmostEquals(pageEdges[i]));
+    }
+
+    @Benchmark
+    public void haveSameStyles(Blackhole blackhole)
+    {
+        for (int i = 1; i < neighbours.length; i++)
+            blackhole.consume(neighbours[i - 1].HaveSameStyles(neighbours[i]));
+    }
+
+    @Benchmark
+    public void styleCompareTo(Blackhole blackhole)
+    {
+        for (Style a : styles)
+            for (Style b : styles)
+                blackhole.consume(a.compareTo(b));
+    }
+}
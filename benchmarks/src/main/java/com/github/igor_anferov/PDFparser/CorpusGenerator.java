@@ -0,0 +1,246 @@
+package com.github.igor_anferov.PDFparser;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Writes synthetic filings of any length: running headers and "Page N of M"
+ * footers, numbered § sections with subsections, tables of 2 to
+ * {@code maxColumns} columns, centered formulas and paragraphs that continue
+ * across page breaks. The same seed always yields the same document, byte for
+ * byte: numbers are formatted with Locale.ROOT and the trailer ID is derived
+ * from the seed instead of the clock.
+ *
+ * Usage: CorpusGenerator out.pdf pages [seed] [--no-headers] [--no-sections]
+ * [--no-tables] [--no-formulas] [--no-cross-page] [--columns N]
+ */
+public class CorpusGenerator {
+    private static final String[] WORDS = ("the of regulatory filing shall include any material information relating " +
+            "to capital requirements liquidity risk and governance arrangements which are disclosed annually " +
+            "in accordance with applicable law").split(" ");
+    private static final String[] FORMULAS = {
+            "x = (a + 2) * 3 / 4 - 5 = 17",
+            "R = C / (A + B) >= 0.08",
+            "L = sum(i = 1..n) w_i * x_i",
+            "E = (P - Q) / Q * 100 = 4.5",
+    };
+
+    private static final float LEFT = 72;
+    private static final float RIGHT = 540;
+    private static final float TOP = 720;
+    private static final float BOTTOM = 100;
+    private static final float LEADING = 12;
+
+    boolean headers = true;
+    boolean sections = true;
+    boolean tables = true;
+    boolean formulas = true;
+    boolean crossPageParagraphs = true;
+    int maxColumns = 5;
+
+    private final long seed;
+    private final Random random;
+    private PDDocument pdf;
+    private PDPageContentStream content;
+    private int pages;
+    private int pageNo;
+    private float y;
+    private int section;
+    private int subsection;
+
+    CorpusGenerator(long seed)
+    {
+        this.seed = seed;
+        random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 2) {
+            System.err.println("Usage: CorpusGenerator out.pdf pages [seed] [--no-headers] [--no-sections] " +
+                               "[--no-tables] [--no-formulas] [--no-cross-page] [--columns N]");
+            System.exit(1);
+        }
+        long seed = args.length > 2 && !args[2].startsWith("--") ? Long.parseLong(args[2]) : 42;
+        CorpusGenerator generator = new CorpusGenerator(seed);
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--no-headers": generator.headers = false; break;
+                case "--no-sections": generator.sections = false; break;
+                case "--no-tables": generator.tables = false; break;
+                case "--no-formulas": generator.formulas = false; break;
+                case "--no-cross-page": generator.crossPageParagraphs = false; break;
+                case "--columns": generator.maxColumns = Integer.parseInt(args[++i]); break;
+            }
+        }
+        generator.write(new File(args[0]), Integer.parseInt(args[1]));
+    }
+
+    void write(File out, int pages) throws IOException
+    {
+        try (PDDocument document = new PDDocument()) {
+            this.pdf = document;
+            this.pages = pages;
+            pageNo = 0;
+            section = 0;
+            if (newPage()) {
+                while (true) {
+                    int kind = random.nextInt(10);
+                    boolean placed;
+                    if (kind == 0 && sections)
+                        placed = heading();
+                    else if (kind <= 2 && tables)
+                        placed = table();
+                    else if (kind == 3 && formulas)
+                        placed = formula();
+                    else
+                        placed = paragraph();
+                    if (!placed)
+                        break;
+                }
+            }
+            endPage();
+            COSString id = new COSString(ByteBuffer.allocate(16).putLong(seed).putLong(pages).array());
+            COSArray ids = new COSArray();
+            ids.add(id);
+            ids.add(id);
+            document.getDocument().getTrailer().setItem(COSName.ID, ids);
+            document.save(out);
+        }
+    }
+
+    private boolean newPage() throws IOException
+    {
+        if (content != null) {
+            endPage();
+            if (pageNo == pages)
+                return false;
+        }
+        PDPage page = new PDPage();
+        pdf.addPage(page);
+        pageNo++;
+        content = new PDPageContentStream(pdf, page);
+        if (headers)
+            text(PDType1Font.HELVETICA, 8, LEFT, 760, "ACME Corp. Annual Regulatory Filing 2018");
+        y = TOP;
+        return true;
+    }
+
+    private void endPage() throws IOException
+    {
+        if (content == null)
+            return;
+        if (headers)
+            text(PDType1Font.HELVETICA, 8, 280, 40, "Page " + pageNo + " of " + pages);
+        content.close();
+        content = null;
+    }
+
+    private boolean fit(float height) throws IOException
+    {
+        return y - height >= BOTTOM || newPage();
+    }
+
+    private boolean heading() throws IOException
+    {
+        boolean top = section == 0 || random.nextInt(3) == 0;
+        if (!fit(30 + 3 * LEADING))
+            return false;
+        if (top) {
+            section++;
+            subsection = 0;
+            text(PDType1Font.HELVETICA_BOLD, 14, LEFT, y, "§ " + section + ". Section " + section + " requirements");
+            y -= 30;
+        } else {
+            subsection++;
+            text(PDType1Font.HELVETICA_BOLD, 11, LEFT, y, section + "." + subsection + ". " + words(4));
+            y -= 22;
+        }
+        return true;
+    }
+
+    private boolean paragraph() throws IOException
+    {
+        int lines = 2 + random.nextInt(8);
+        if (!crossPageParagraphs && !fit(lines * LEADING))
+            return false;
+        for (int l = 0; l < lines; l++) {
+            if (y < BOTTOM && !newPage())
+                return false;
+            text(PDType1Font.TIMES_ROMAN, 10, l == 0 ? LEFT + 18 : LEFT, y,
+                 l == lines - 1 ? words(6 + random.nextInt(6)) + "." : line(80));
+            y -= LEADING;
+        }
+        y -= LEADING;
+        return true;
+    }
+
+    private boolean table() throws IOException
+    {
+        int columns = 2 + random.nextInt(Math.max(1, maxColumns - 1));
+        int rows = 2 + random.nextInt(6);
+        if (!fit((rows + 1) * 14 + 20))
+            return false;
+        float width = (RIGHT - LEFT) / columns;
+        for (int c = 0; c < columns; c++)
+            text(PDType1Font.TIMES_BOLD, 10, LEFT + c * width, y, c == 0 ? "Item" : "Year " + (2013 + c));
+        y -= 14;
+        for (int row = 0; row < rows; row++) {
+            for (int c = 0; c < columns; c++)
+                text(PDType1Font.TIMES_ROMAN, 10, LEFT + c * width, y,
+                     c == 0 ? "Name " + (row + 1) : String.format(Locale.ROOT, "%,d", random.nextInt(100000)));
+            y -= 14;
+        }
+        y -= 20;
+        return true;
+    }
+
+    private boolean formula() throws IOException
+    {
+        if (!fit(24))
+            return false;
+        text(PDType1Font.TIMES_ROMAN, 10, 200, y, FORMULAS[random.nextInt(FORMULAS.length)]);
+        y -= 24;
+        return true;
+    }
+
+    private String words(int count)
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                text.append(' ');
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    private String line(int length)
+    {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length)
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        return text.toString().trim();
+    }
+
+    private void text(PDFont font, float size, float x, float y, String text) throws IOException
+    {
+        content.beginText();
+        content.setFont(font, size);
+        content.newLineAtOffset(x, y);
+        content.showText(text);
+        content.endText();
+    }
+}
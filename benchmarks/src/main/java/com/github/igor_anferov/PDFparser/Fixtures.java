@@ -0,0 +1,30 @@
+package com.github.igor_anferov.PDFparser;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Benchmark inputs bundled as resources. filing-40.pdf is generated, not
+ * hand-made, and can be rebuilt with
+ * <pre>
+ * java -cp target/benchmarks.jar com.github.igor_anferov.PDFparser.CorpusGenerator \
+ *     src/main/resources/fixtures/filing-40.pdf 40 42
+ * </pre>
+ */
+final class Fixtures {
+    static final String FILING = "/fixtures/filing-40.pdf";
+
+    private Fixtures() {}
+
+    static PDDocument load(String name) throws IOException
+    {
+        try (InputStream in = Fixtures.class.getResourceAsStream(name)) {
+            if (in == null)
+                throw new FileNotFoundException(name);
+            return PDDocument.load(in);
+        }
+    }
+}
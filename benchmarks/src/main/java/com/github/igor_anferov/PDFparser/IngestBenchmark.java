@@ -0,0 +1,55 @@
+package com.github.igor_anferov.PDFparser;
+
+import org.apache.commons.io.output.NullWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IngestBenchmark {
+    private PDDocument pdf;
+    private IngestRecording recording;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        pdf = Fixtures.load(Fixtures.FILING);
+        recording = IngestRecording.record(pdf);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        pdf.close();
+    }
+
+    @Benchmark
+    public Document writeText() throws IOException
+    {
+        PDFextractor extractor = new PDFextractor();
+        extractor.writeText(pdf, new NullWriter());
+        return extractor.document;
+    }
+
+    @Benchmark
+    public Document writeTextStripper() throws IOException
+    {
+        PDFextractor extractor = new PDFextractor();
+        extractor.glyphIngest = false;
+        extractor.writeText(pdf, new NullWriter());
+        return extractor.document;
+    }
+
+    @Benchmark
+    public Document replayWriteString() throws IOException
+    {
+        return recording.replay();
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.igor_anferov.PDFparser;
+
+import org.apache.commons.io.output.NullWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.TextPosition;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Calls PDFTextStripper makes into PDFextractor while parsing a document
+ * with the stripper ingest path, so that ingest can be replayed without
+ * PDFBox parsing and phases can be benchmarked on a fresh raw Document.
+ */
+final class IngestRecording {
+    private enum Kind { STRING, LINE_SEPARATOR, PAGE_END }
+
+    private static final class Event {
+        final Kind kind;
+        final int page;
+        final String text;
+        final List<TextPosition> positions;
+
+        Event(Kind kind, int page, String text, List<TextPosition> positions)
+        {
+            this.kind = kind;
+            this.page = page;
+            this.text = text;
+            this.positions = positions;
+        }
+    }
+
+    private final List<Event> events = new ArrayList<>();
+    private final String name;
+
+    private IngestRecording(String name)
+    {
+        this.name = name;
+    }
+
+    static IngestRecording record(PDDocument pdf) throws IOException
+    {
+        IngestRecording recording = new IngestRecording(pdf.getDocumentInformation().getTitle());
+        new PDFextractor() {
+            {
+                glyphIngest = false;
+            }
+
+            @Override
+            protected void writeString(String text, List<TextPosition> textPositions) throws IOException
+            {
+                recording.events.add(new Event(Kind.STRING, getCurrentPageNo(), text, new ArrayList<>(textPositions)));
+                super.writeString(text, textPositions);
+            }
+
+            @Override
+            protected void writeLineSeparator() throws IOException
+            {
+                recording.events.add(new Event(Kind.LINE_SEPARATOR, getCurrentPageNo(), null, null));
+                super.writeLineSeparator();
+            }
+
+            @Override
+            protected void writePageEnd() throws IOException
+            {
+                recording.events.add(new Event(Kind.PAGE_END, getCurrentPageNo(), null, null));
+                super.writePageEnd();
+            }
+        }.writeText(pdf, new NullWriter());
+        return recording;
+    }
+
+    Document replay() throws IOException
+    {
+        int[] page = {0};
+        PDFextractor extractor = new PDFextractor() {
+            @Override
+            protected int getCurrentPageNo()
+            {
+                return page[0];
+            }
+        };
+        extractor.beginDocument(name, new StyleRegistry());
+        for (Event event : events) {
+            page[0] = event.page;
+            switch (event.kind) {
+                case STRING:
+                    extractor.writeString(event.text, event.positions);
+                    break;
+                case LINE_SEPARATOR:
+                    extractor.writeLineSeparator();
+                    break;
+                case PAGE_END:
+                    extractor.writePageEnd();
+                    break;
+            }
+        }
+        return extractor.document;
+    }
+}
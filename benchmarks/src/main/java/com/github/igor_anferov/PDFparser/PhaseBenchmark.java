@@ -0,0 +1,105 @@
+package com.github.igor_anferov.PDFparser;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 50)
+@Fork(1)
+@State(Scope.Thread)
+public class PhaseBenchmark {
+    private static final String[] PHASES = {
+            "RemoveHeadersAndFooters",
+            "fillPositions",
+            "mergeFirstLinesWithRest",
+            "FillBlocksAlignments",
+            "mergeEopBlocks",
+            "MergeLinesInsideBlocks",
+            "FillBlocksTypes",
+            "FillStylesHist",
+            "findTables",
+            "fillHierarchy",
+    };
+
+    @Param({
+            "RemoveHeadersAndFooters",
+            "FillBlocksAlignments",
+            "mergeEopBlocks",
+            "FillStylesHist",
+            "findTables",
+            "fillHierarchy",
+    })
+    public String phase;
+
+    private IngestRecording recording;
+    private Document document;
+
+    @Setup(Level.Trial)
+    public void record() throws IOException
+    {
+        try (PDDocument pdf = Fixtures.load(Fixtures.FILING)) {
+            recording = IngestRecording.record(pdf);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void runPrecedingPhases() throws IOException
+    {
+        document = recording.replay();
+        for (String preceding : PHASES) {
+            if (preceding.equals(phase))
+                break;
+            run(document, preceding);
+        }
+    }
+
+    @Benchmark
+    public Document phase()
+    {
+        run(document, phase);
+        return document;
+    }
+
+    private static void run(Document document, String phase)
+    {
+        switch (phase) {
+            case "RemoveHeadersAndFooters":
+                document.RemoveHeadersAndFooters();
+                break;
+            case "fillPositions":
+                document.fillPositions();
+                break;
+            case "mergeFirstLinesWithRest":
+                document.mergeFirstLinesWithRest();
+                break;
+            case "FillBlocksAlignments":
+                document.FillBlocksAlignments();
+                break;
+            case "mergeEopBlocks":
+                document.mergeEopBlocks();
+                break;
+            case "MergeLinesInsideBlocks":
+                document.MergeLinesInsideBlocks();
+                break;
+            case "FillBlocksTypes":
+                document.FillBlocksTypes();
+                break;
+            case "FillStylesHist":
+                document.FillStylesHist();
+                break;
+            case "findTables":
+                document.findTables();
+                break;
+            case "fillHierarchy":
+                document.fillHierarchy();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown phase " + phase);
+        }
+    }
+}
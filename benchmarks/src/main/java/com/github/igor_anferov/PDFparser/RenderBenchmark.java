@@ -0,0 +1,58 @@
+package com.github.igor_anferov.PDFparser;
+
+import org.apache.commons.io.output.NullWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark {
+    @Param({"cached", "clipped"})
+    public String path;
+
+    @Param({"RGB", "GRAY"})
+    public String mode;
+
+    private PDDocument pdf;
+    private RegionPDFRenderer renderer;
+    private final List<Map.Entry<Integer, Rectangle.Float>> regions = new ArrayList<>();
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        pdf = Fixtures.load(Fixtures.FILING);
+        PDFextractor extractor = new PDFextractor();
+        extractor.writeText(pdf, new NullWriter());
+        for (Block block : extractor.GetDocument().blocks)
+            if (RenderPipeline.isRendered(block))
+                regions.addAll(block.GetRenderRegions().entrySet());
+        long cacheBytes = path.equals("cached") ? RegionPDFRenderer.DEFAULT_CACHE_BYTES : 0;
+        renderer = new RegionPDFRenderer(pdf, 288, cacheBytes, RegionPDFRenderer.RasterMode.valueOf(mode), 0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        pdf.close();
+    }
+
+    @Benchmark
+    public RenderedImage renderRect() throws IOException
+    {
+        Map.Entry<Integer, Rectangle.Float> region = regions.get(next++ % regions.size());
+        return renderer.renderRect(region.getKey() - 1, region.getValue());
+    }
+}
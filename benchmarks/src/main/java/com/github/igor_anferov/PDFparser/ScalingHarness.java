@@ -0,0 +1,165 @@
+package com.github.igor_anferov.PDFparser;
+
+import org.apache.commons.io.output.NullWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Extracts generated filings of growing length and reports throughput,
+ * latency percentiles and, for every phase timer, the exponent k of the
+ * least-squares fit time ~ pages^k. k close to 1 is linear; a phase drifting
+ * towards 2 is quadratic in the document size.
+ *
+ * Usage: ScalingHarness [--sizes 25,50,100,200,400] [--runs 5] [--warmup 1]
+ * [--seed 42] [--dir path]
+ */
+public class ScalingHarness {
+    private static final String TOTAL = "total";
+
+    private int[] sizes = {25, 50, 100, 200, 400};
+    private int runs = 5;
+    private int warmup = 1;
+    private long seed = 42;
+    private File dir = null;
+
+    private static class Sample {
+        final int pages;
+        final long bytes;
+        final long[] latencies;
+        final Map<String, long[]> phases = new TreeMap<>();
+
+        Sample(int pages, long bytes, int runs)
+        {
+            this.pages = pages;
+            this.bytes = bytes;
+            this.latencies = new long[runs];
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        ScalingHarness harness = new ScalingHarness();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes": harness.sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray(); break;
+                case "--runs": harness.runs = Integer.parseInt(args[++i]); break;
+                case "--warmup": harness.warmup = Integer.parseInt(args[++i]); break;
+                case "--seed": harness.seed = Long.parseLong(args[++i]); break;
+                case "--dir": harness.dir = new File(args[++i]); break;
+                default:
+                    System.err.println("Usage: ScalingHarness [--sizes 25,50,100,200,400] [--runs 5] " +
+                                       "[--warmup 1] [--seed 42] [--dir path]");
+                    System.exit(1);
+            }
+        }
+        harness.report(harness.measure());
+    }
+
+    private List<Sample> measure() throws IOException
+    {
+        File corpus = dir != null ? dir : Files.createTempDirectory("pdfparser-corpus").toFile();
+        corpus.mkdirs();
+        List<Sample> samples = new ArrayList<>();
+        for (int pages : sizes) {
+            File file = new File(corpus, "filing-" + pages + ".pdf");
+            if (!file.exists())
+                new CorpusGenerator(seed).write(file, pages);
+            if (dir == null)
+                file.deleteOnExit();
+            Sample sample = new Sample(pages, file.length(), runs);
+            for (int run = 0; run < warmup; run++)
+                extract(file);
+            for (int run = 0; run < runs; run++) {
+                long start = System.nanoTime();
+                Metrics metrics = extract(file);
+                sample.latencies[run] = System.nanoTime() - start;
+                for (Map.Entry<String, Long> timer : metrics.nanos().entrySet())
+                    sample.phases.computeIfAbsent(timer.getKey(), k -> new long[runs])[run] = timer.getValue();
+                sample.phases.computeIfAbsent(TOTAL, k -> new long[runs])[run] = sample.latencies[run];
+            }
+            System.err.printf("%d pages: %.1f ms%n", pages, percentile(sample.latencies, 50) / 1e6);
+            samples.add(sample);
+        }
+        if (dir == null)
+            corpus.deleteOnExit();
+        return samples;
+    }
+
+    private static Metrics extract(File file) throws IOException
+    {
+        try (PDDocument pdf = PDDocument.load(file)) {
+            PDFextractor extractor = new PDFextractor();
+            extractor.writeText(pdf, new NullWriter());
+            extractor.GetDocument();
+            return extractor.metrics;
+        }
+    }
+
+    private void report(List<Sample> samples)
+    {
+        System.out.printf("%8s %10s %10s %10s %10s %10s%n", "pages", "MB", "p50 ms", "p99 ms", "pages/s", "MB/s");
+        for (Sample sample : samples) {
+            double p50 = percentile(sample.latencies, 50) / 1e9;
+            double mb = sample.bytes / (double) (1 << 20);
+            System.out.printf("%8d %10.2f %10.1f %10.1f %10.1f %10.2f%n", sample.pages, mb, p50 * 1e3,
+                              percentile(sample.latencies, 99) / 1e6, sample.pages / p50, mb / p50);
+        }
+        System.out.println();
+        System.out.printf("%-40s", "p50 ms by pages");
+        for (Sample sample : samples)
+            System.out.printf(" %9d", sample.pages);
+        System.out.printf(" %9s%n", "exponent");
+        for (String phase : samples.get(samples.size() - 1).phases.keySet()) {
+            System.out.printf("%-40s", phase);
+            double[] x = new double[samples.size()];
+            double[] y = new double[samples.size()];
+            int n = 0;
+            for (Sample sample : samples) {
+                long[] times = sample.phases.get(phase);
+                long median = times == null ? 0 : percentile(times, 50);
+                System.out.printf(" %9.1f", median / 1e6);
+                if (median > 0) {
+                    x[n] = Math.log(sample.pages);
+                    y[n] = Math.log(median);
+                    n++;
+                }
+            }
+            System.out.printf(" %9.2f%n", slope(x, y, n));
+        }
+    }
+
+    private static long percentile(long[] values, int percent)
+    {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static double slope(double[] x, double[] y, int n)
+    {
+        if (n < 2)
+            return Double.NaN;
+        double mx = 0, my = 0;
+        for (int i = 0; i < n; i++) {
+            mx += x[i];
+            my += y[i];
+        }
+        mx /= n;
+        my /= n;
+        double sxy = 0, sxx = 0;
+        for (int i = 0; i < n; i++) {
+            sxy += (x[i] - mx) * (y[i] - my);
+            sxx += (x[i] - mx) * (x[i] - mx);
+        }
+        return sxx == 0 ? Double.NaN : sxy / sxx;
+    }
+}
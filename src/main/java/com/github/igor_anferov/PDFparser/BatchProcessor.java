@@ -0,0 +1,188 @@
+package com.github.igor_anferov.PDFparser;
+
+import org.apache.commons.io.output.NullWriter;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatchProcessor {
+    private static final Input END = new Input(null, null, null);
+
+    private static class Input {
+        final File file;
+        final PDFSource source;
+        final IOException error;
+
+        Input(File file, PDFSource source, IOException error)
+        {
+            this.file = file;
+            this.source = source;
+            this.error = error;
+        }
+    }
+
+    private final int threads;
+    private final int prefetch;
+    private final String password;
+    private final boolean jaxb;
+    private final boolean mapped;
+    private final MemoryUsageSetting memory;
+    boolean printMetrics = false;
+    boolean glyphIngest = true;
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger live = new AtomicInteger();
+
+    BatchProcessor(int threads, int prefetch, String password, boolean jaxb)
+    {
+        this(threads, prefetch, password, jaxb, false, MemoryUsageSetting.setupMainMemoryOnly());
+    }
+
+    BatchProcessor(int threads, int prefetch, String password, boolean jaxb, boolean mapped, MemoryUsageSetting memory)
+    {
+        this.threads = threads;
+        this.prefetch = prefetch;
+        this.password = password;
+        this.jaxb = jaxb;
+        this.mapped = mapped;
+        this.memory = memory;
+    }
+
+    public static List<File> listInputs(File dirOrManifest) throws IOException
+    {
+        List<File> inputs = new ArrayList<>();
+        if (dirOrManifest.isDirectory()) {
+            collectPdfs(dirOrManifest, inputs);
+            Collections.sort(inputs);
+        } else {
+            for (String line : Files.readAllLines(dirOrManifest.toPath(), StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#"))
+                    inputs.add(new File(line));
+            }
+        }
+        return inputs;
+    }
+
+    private static void collectPdfs(File dir, List<File> inputs)
+    {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            if (file.isDirectory())
+                collectPdfs(file, inputs);
+            else if (file.getName().toLowerCase().endsWith(".pdf"))
+                inputs.add(file);
+        }
+    }
+
+    public void run(List<File> inputs, File summary) throws IOException
+    {
+        BlockingQueue<Input> queue = new ArrayBlockingQueue<>(prefetch);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try (PrintWriter stats = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(summary), StandardCharsets.UTF_8)))) {
+            stats.println("file\tpages\tblocks\tmillis\tstatus");
+            live.set(threads);
+            for (int i = 0; i < threads; i++)
+                workers.submit(() -> work(queue, stats));
+            try {
+                for (File file : inputs) {
+                    Input input;
+                    try {
+                        input = new Input(file, mapped ? PDFSource.of(file, password, true, memory)
+                                : PDFSource.of(Files.readAllBytes(file.toPath()), password, memory), null);
+                    } catch (IOException e) {
+                        input = new Input(file, null, e);
+                    }
+                    if (!put(queue, input))
+                        break;
+                }
+                for (int i = 0; i < threads; i++)
+                    if (!put(queue, END))
+                        break;
+                workers.shutdown();
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                if (processed.get() < inputs.size())
+                    System.err.printf("All workers stopped, %d documents were not processed%n",
+                                      inputs.size() - processed.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                workers.shutdownNow();
+                throw new InterruptedIOException();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Processed %d documents (%d failed) in %.1f s, %.2f documents/s%n",
+                processed.get(), failed.get(), seconds, processed.get() / seconds);
+        if (printMetrics)
+            Metrics.GLOBAL.print(System.out, "Total");
+    }
+
+    private boolean put(BlockingQueue<Input> queue, Input input) throws InterruptedException
+    {
+        while (!queue.offer(input, 100, TimeUnit.MILLISECONDS)) {
+            if (live.get() == 0)
+                return false;
+        }
+        return true;
+    }
+
+    private void work(BlockingQueue<Input> queue, PrintWriter stats)
+    {
+        try {
+            for (Input input = queue.take(); input != END; input = queue.take()) {
+                long start = System.nanoTime();
+                int pages = 0;
+                int blocks = 0;
+                String status = "ok";
+                try {
+                    if (input.error != null)
+                        throw input.error;
+                    try (PDDocument document = input.source.open()) {
+                        pages = document.getNumberOfPages();
+                        if (!document.getCurrentAccessPermission().canExtractContent())
+                            throw new IOException("Have no permissions to extract PDF's content");
+                        PDFextractor extractor = new PDFextractor();
+                        extractor.glyphIngest = glyphIngest;
+                        extractor.writeText(document, new NullWriter());
+                        Document doc = extractor.GetDocument();
+                        blocks = doc.blocks.size();
+                        Main.writeXml(doc, Main.xmlFileFor(input.file.getPath()), jaxb);
+                        if (printMetrics) {
+                            synchronized (System.out) {
+                                extractor.metrics.print(System.out, input.file.getPath());
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    failed.incrementAndGet();
+                    status = e.toString().replaceAll("\\s+", " ");
+                }
+                processed.incrementAndGet();
+                long millis = (System.nanoTime() - start) / 1000000;
+                synchronized (stats) {
+                    stats.println(input.file.getPath() + "\t" + pages + "\t" + blocks + "\t" + millis + "\t" + status);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            live.decrementAndGet();
+        }
+    }
+}
@@ -52,10 +52,19 @@ public class Block {
     public Style.AlignType alignment = Style.AlignType.Unknown;
     @XmlTransient
     protected RegionPDFRenderer renderer;
+    int ordinal = -1;
     @XmlElementWrapper(name = "subBlocks")
     @XmlElement(name = "subBlock")
     public List<Block> sons;
 
+    private static final int BOUNDS = 1;
+    private static final int MEDIAN_STYLE = 2;
+    private static final int CHAR_HEIGHT = 4;
+    private static final int CHAR_WIDTH = 8;
+    private int cached = 0;
+    private float cachedXMin, cachedXMax, cachedEps, cachedCharHeight, cachedCharWidth;
+    private Style cachedMedianStyle;
+
     Block(RegionPDFRenderer renderer)
     {
         lines = new ArrayList<>();
@@ -78,24 +87,40 @@ public class Block {
         return getLastLine().getLastPage();
     }
 
-    public float xMin()
+    void invalidate()
     {
+        cached = 0;
+    }
+
+    private void ensureBounds()
+    {
+        if ((cached & BOUNDS) != 0)
+            return;
         assert (!lines.isEmpty());
-        float res = lines.get(0).xMin();
-        for (Line line : lines)
-            if (line.xMin() < res)
-                res = line.xMin();
-        return res;
+        cachedXMin = lines.get(0).xMin();
+        cachedXMax = lines.get(0).xMax();
+        cachedEps = lines.get(0).getEps();
+        for (Line line : lines) {
+            if (line.xMin() < cachedXMin)
+                cachedXMin = line.xMin();
+            if (line.xMax() > cachedXMax)
+                cachedXMax = line.xMax();
+            if (line.getEps() > cachedEps)
+                cachedEps = line.getEps();
+        }
+        cached |= BOUNDS;
+    }
+
+    public float xMin()
+    {
+        ensureBounds();
+        return cachedXMin;
     }
 
     public float xMax()
     {
-        assert (!lines.isEmpty());
-        float res = lines.get(0).xMax();
-        for (Line line : lines)
-            if (line.xMax() > res)
-                res = line.xMax();
-        return res;
+        ensureBounds();
+        return cachedXMax;
     }
 
     public float Width()
@@ -110,56 +135,58 @@ public class Block {
 
     public float getEps()
     {
-        assert (!lines.isEmpty());
-        float res = lines.get(0).getEps();
-        for (Line line : lines)
-            if (line.getEps() > res)
-                res = line.getEps();
-        return res;
+        ensureBounds();
+        return cachedEps;
     }
 
     public Map<Integer, OnPagePosition> GetPositionsHistogram()
     {
         TreeMap<Integer, OnPagePosition> map = new TreeMap<>();
         for (Line line : lines) {
-            for (OnPagePosition onPagePosition : line.onPagePositions) {
-                if (map.containsKey(onPagePosition.page)) {
-                    OnPagePosition pos = map.get(onPagePosition.page);
-                    pos.ExtendTo(onPagePosition);
-                } else {
-                    map.put(onPagePosition.page, onPagePosition.clone());
-                }
+            for (int i = 0; i < line.length; i++) {
+                OnPagePosition pos = map.get(line.charPage[i]);
+                if (pos != null)
+                    pos.ExtendTo(line.charXMin[i], line.charXMax[i], line.charYMin[i], line.charYMax[i]);
+                else
+                    map.put(line.charPage[i], line.getPosition(i));
             }
         }
         return map;
     }
 
-    public List<RenderedImage> GetRender() throws IOException {
+    public Map<Integer, Rectangle.Float> GetRenderRegions()
+    {
         float xField = getMedianCharWidth() / 2;
         float yField = getMedianCharHeight() / 1.3f;
-        List<RenderedImage> ret = new ArrayList<>();
+        Map<Integer, Rectangle.Float> regions = new TreeMap<>();
         for (Map.Entry<Integer, OnPagePosition> entry : GetPositionsHistogram().entrySet()) {
-            getMedianStyle();
-            Rectangle.Float region = new Rectangle.Float(
+            regions.put(entry.getKey(), new Rectangle.Float(
                     entry.getValue().xMin - xField,
                     entry.getValue().yMin - yField,
                     entry.getValue().xMax - entry.getValue().xMin + 2 * xField,
                     entry.getValue().yMax - entry.getValue().yMin + 1.8f * yField
-            );
-
-            ret.add(renderer.renderRect(entry.getKey() - 1, region));
+            ));
         }
+        return regions;
+    }
+
+    public List<RenderedImage> GetRender() throws IOException {
+        List<RenderedImage> ret = new ArrayList<>();
+        for (Map.Entry<Integer, Rectangle.Float> entry : GetRenderRegions().entrySet())
+            ret.add(renderer.renderRect(entry.getKey() - 1, entry.getValue()));
         return ret;
     }
 
     public void Append(Line l)
     {
         lines.add(l);
+        invalidate();
     }
 
     public void Append(Block other)
     {
         lines.addAll(other.lines);
+        invalidate();
         endOfPage |= other.endOfPage;
         alignment = Style.AlignType.values()[max(alignment.ordinal(), other.alignment.ordinal())];
     }
@@ -168,45 +195,88 @@ public class Block {
     {
         while (lines.size() >  1)
             lines.get(0).Merge(lines.remove(1));
+        invalidate();
     }
 
     public Style getMedianStyle()
     {
-        Map<Style, Integer> diagramm = new HashMap<>();
+        if ((cached & MEDIAN_STYLE) == 0) {
+            cachedMedianStyle = computeMedianStyle();
+            cached |= MEDIAN_STYLE;
+        }
+        return cachedMedianStyle;
+    }
+
+    private Style computeMedianStyle()
+    {
+        Map<Integer, Integer> diagramm = new LinkedHashMap<>();
         for (Line line : lines)
-            diagramm.merge(line.getMedianStyle(), 1, Integer::sum);
-        Style common = null;
-        Integer commonCnt = 0;
-        for (Map.Entry<Style, Integer> styleIntegerEntry : diagramm.entrySet())
-            if (styleIntegerEntry.getValue() >= commonCnt) {
+            diagramm.merge(line.getMedianStyleId(), 1, Integer::sum);
+        int common = -1;
+        int commonCnt = 0;
+        for (Map.Entry<Integer, Integer> styleIntegerEntry : diagramm.entrySet())
+            if (styleIntegerEntry.getValue() > commonCnt) {
                 commonCnt = styleIntegerEntry.getValue();
                 common = styleIntegerEntry.getKey();
             }
-        return common;
+        return common < 0 ? null : lines.get(0).registry.get(common);
     }
 
-    public float getMedianCharHeight()
+    private int charCount()
     {
-        List<Float> l = new ArrayList<>();
+        int count = 0;
         for (Line line : lines)
-            for (OnPagePosition pos : line.onPagePositions)
-                l.add(pos.yMax - pos.yMin);
-        l.sort(Float::compare);
-        l = l.subList((int)(l.size() * 0.33), (int)(l.size() * 0.67));
+            count += line.length;
+        return count;
+    }
 
-        return l.stream().reduce(0f, Float::sum) / l.size();
+    private static float middleThirdAverage(float[] values)
+    {
+        Arrays.sort(values);
+        int from = (int)(values.length * 0.33);
+        int to = (int)(values.length * 0.67);
+        float sum = 0f;
+        for (int i = from; i < to; i++)
+            sum += values[i];
+        return sum / (to - from);
     }
 
-    public float getMedianCharWidth()
+    public float getMedianCharHeight()
+    {
+        if ((cached & CHAR_HEIGHT) == 0) {
+            cachedCharHeight = computeMedianCharHeight();
+            cached |= CHAR_HEIGHT;
+        }
+        return cachedCharHeight;
+    }
+
+    private float computeMedianCharHeight()
     {
-        List<Float> l = new ArrayList<>();
+        float[] heights = new float[charCount()];
+        int n = 0;
         for (Line line : lines)
-            for (OnPagePosition pos : line.onPagePositions)
-                l.add(pos.xMax - pos.xMin);
-        l.sort(Float::compare);
-        l = l.subList((int)(l.size() * 0.33), (int)(l.size() * 0.67));
+            for (int i = 0; i < line.length; i++)
+                heights[n++] = line.charYMax[i] - line.charYMin[i];
+        return middleThirdAverage(heights);
+    }
+
+    public float getMedianCharWidth()
+    {
+        if ((cached & CHAR_WIDTH) == 0) {
+            cachedCharWidth = computeMedianCharWidth();
+            cached |= CHAR_WIDTH;
+        }
+        return cachedCharWidth;
+    }
 
-        return l.stream().reduce(0f, Float::sum) / l.size();
+    private float computeMedianCharWidth()
+    {
+        float[] widths = new float[charCount()];
+        int n = 0;
+        for (Line line : lines)
+            for (int i = 0; i < line.length; i++)
+                widths[n++] = line.charXMax[i] - line.charXMin[i];
+        return middleThirdAverage(widths);
     }
 
     public float getMaxLineWidth()
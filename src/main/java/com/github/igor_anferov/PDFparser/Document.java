@@ -2,11 +2,11 @@ package com.github.igor_anferov.PDFparser;
 
 import com.sun.org.apache.xpath.internal.operations.Equals;
 import javafx.util.Pair;
-import org.lionsoul.jcseg.util.Sort;
 
 import javax.xml.bind.annotation.*;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static java.lang.Math.abs;
 import static java.lang.Math.min;
@@ -26,13 +26,15 @@ public class Document {
     public List<Block> hierarchy;
     @XmlTransient
     Map<Style, Set<Block>> hist;
+    @XmlTransient
+    StyleRegistry styles;
 
     class BlocksComparator implements Comparator<Block> {
         @Override
         public int compare(Block o1, Block o2) {
             if (o1 == o2)
                 return 0;
-            if (blocks.indexOf(o1) < blocks.indexOf(o2))
+            if (o1.ordinal < o2.ordinal)
                 return -1;
             else
                 return 1;
@@ -41,9 +43,10 @@ public class Document {
 
     public Document() {}
 
-    Document(String name)
+    Document(String name, StyleRegistry styles)
     {
         this.name = name;
+        this.styles = styles;
         blocks = new ArrayList<>();
         eopBlocks = new ArrayList<>();
         hist = new TreeMap<>();
@@ -54,7 +57,12 @@ public class Document {
     {
         xMin = yMin = Float.MAX_VALUE;
         xMax = yMax = Float.MIN_VALUE;
-        for (Block block : blocks)
+        includePositions(0);
+    }
+
+    void includePositions(int fromBlock)
+    {
+        for (Block block : blocks.subList(fromBlock, blocks.size()))
             for (Line line : block.lines) {
                 if (line.yMax() > yMax)
                     yMax = line.yMax();
@@ -82,238 +90,528 @@ public class Document {
         blocks.add(b);
     }
 
-    private Pair<Integer, Integer> getLineBefore(Pair<Integer, Integer> prevLine)
+    int pages()
+    {
+        return eopBlocks.size() - 1;
+    }
+
+    Document takePages(int count)
     {
-        for (int block = prevLine.getKey(),
-             line = prevLine.getValue() - 1;
+        Document head = new Document(name, styles);
+        int end = eopBlocks.get(count) + 1;
+        head.blocks.addAll(blocks.subList(0, end));
+        head.eopBlocks.addAll(eopBlocks.subList(1, count + 1));
+        blocks.subList(0, end).clear();
+        eopBlocks.subList(1, count + 1).clear();
+        for (int i = 1; i < eopBlocks.size(); i++)
+            eopBlocks.set(i, eopBlocks.get(i) - end);
+        return head;
+    }
+
+    private void renumberBlocks(int from)
+    {
+        for (int i = from; i < blocks.size(); i++)
+            blocks.get(i).ordinal = i;
+    }
+
+    public void Append(Document other)
+    {
+        assert (other.styles == styles);
+        for (int i = 1; i < other.eopBlocks.size(); i++)
+            eopBlocks.add(blocks.size() + other.eopBlocks.get(i));
+        blocks.addAll(other.blocks);
+    }
+
+    private static long position(int block, int line)
+    {
+        return (long) block << 32 | line & 0xFFFFFFFFL;
+    }
+
+    private static int blockOf(long position)
+    {
+        return (int) (position >> 32);
+    }
+
+    private static int lineOf(long position)
+    {
+        return (int) position;
+    }
+
+    private static final long NO_LINE = Long.MIN_VALUE;
+
+    private long getLineBefore(long prevLine)
+    {
+        for (int block = blockOf(prevLine),
+             line = lineOf(prevLine) - 1;
              block >= 0;
              line = blocks.get(block).lines.size()-1)
         {
             if (block < blocks.size() && line >= 0)
-                return new Pair<>(block, line);
+                return position(block, line);
             if (--block < 0)
                 break;
         }
-        return null;
+        return NO_LINE;
     }
 
-    private Pair<Integer, Integer> getLineAfter(Pair<Integer, Integer> prevLine)
+    private long getLineAfter(long prevLine)
     {
-        for (int block = prevLine.getKey(),
-             line = prevLine.getValue() + 1;
+        for (int block = blockOf(prevLine),
+             line = lineOf(prevLine) + 1;
              block < blocks.size();
              line = 0)
         {
             if (block >= 0 && line < blocks.get(block).lines.size())
-                return new Pair<>(block, line);
+                return position(block, line);
             if (++block >= blocks.size())
                 break;
         }
-        return null;
+        return NO_LINE;
     }
 
-    private Line getLine(Pair<Integer, Integer> line)
+    private Line getLine(long line)
     {
-        return blocks.get(line.getKey()).lines.get(line.getValue());
+        return blocks.get(blockOf(line)).lines.get(lineOf(line));
     }
 
     enum matchingDirection {
         matchUp,
         matchDown
     }
-    private Set<Pair<Integer, Integer>> match(matchingDirection direction,
-                                              Pair<Integer, Integer> line1,
-                                              Pair<Integer, Integer> line2
-                                              )
-    {
-        Set<Pair<Integer, Integer>> ret = new HashSet<>();
-        for (Pair<Integer, Integer> l1 = direction == matchingDirection.matchUp ? getLineBefore(line1): getLineAfter(line1),
-                                    l2 = direction == matchingDirection.matchUp ? getLineBefore(line2): getLineAfter(line2);
-             l1 != null && l2 != null;
-             l1 = direction == matchingDirection.matchUp ? getLineBefore(l1): getLineAfter(l1),
-             l2 = direction == matchingDirection.matchUp ? getLineBefore(l2): getLineAfter(l2))
-            if (getLine(l1).AlmostEquals(getLine(l2))) {
+
+    private long next(matchingDirection direction, long line)
+    {
+        return direction == matchingDirection.matchUp ? getLineBefore(line) : getLineAfter(line);
+    }
+
+    private void match(matchingDirection direction, long line1, long line2, Set<Long> ret)
+    {
+        for (long l1 = next(direction, line1), l2 = next(direction, line2);
+             l1 != NO_LINE && l2 != NO_LINE;
+             l1 = next(direction, l1), l2 = next(direction, l2))
+            if (getLine(l1).AlmostEqualsByFingerprint(getLine(l2))) {
                 ret.add(l1);
                 ret.add(l2);
             } else {
                 break;
             }
-        return ret;
     }
 
-    private Set<Pair<Integer, Integer>> needsToBeRemoved(Integer eopBlocksIndex)
-    {
-        Set<Pair<Integer, Integer>> ret = new HashSet<>();
-        for (int i = eopBlocksIndex + 1; i <= min(eopBlocks.size() - 1, eopBlocksIndex + 10); i++) {
-            ret.addAll(match(matchingDirection.matchUp, new Pair<>(eopBlocks.get(i) + 1, 0), new Pair<>(eopBlocks.get(eopBlocksIndex) + 1, 0)));
-            ret.addAll(match(matchingDirection.matchDown, new Pair<>(eopBlocks.get(i) + 1, -1), new Pair<>(eopBlocks.get(eopBlocksIndex) + 1, -1)));
+    private class PageEdges {
+        final long[] start = new long[eopBlocks.size()];
+        final String[] firstFingerprint = new String[eopBlocks.size()];
+        final String[] lastFingerprint = new String[eopBlocks.size()];
+        final Map<String, List<Integer>> headers = new HashMap<>();
+        final Map<String, List<Integer>> footers = new HashMap<>();
+
+        PageEdges()
+        {
+            for (Block block : blocks)
+                for (Line line : block.lines)
+                    line.getMedianStyleId();
+            for (int i = 0; i < eopBlocks.size(); i++) {
+                start[i] = position(eopBlocks.get(i) + 1, 0);
+                lastFingerprint[i] = index(footers, getLineBefore(start[i]), i);
+                firstFingerprint[i] = index(headers, getLineAfter(position(eopBlocks.get(i) + 1, -1)), i);
+            }
+        }
+
+        private String index(Map<String, List<Integer>> fingerprints, long line, int page)
+        {
+            if (line == NO_LINE)
+                return null;
+            String fingerprint = getLine(line).Fingerprint();
+            fingerprints.computeIfAbsent(fingerprint, k -> new ArrayList<>()).add(page);
+            return fingerprint;
         }
+    }
+
+    private Set<Long> needsToBeRemoved(PageEdges edges, int eopBlocksIndex)
+    {
+        Set<Long> ret = new HashSet<>();
+        int lastCandidate = min(eopBlocks.size() - 1, eopBlocksIndex + 10);
+        for (int i : edges.footers.getOrDefault(edges.lastFingerprint[eopBlocksIndex], Collections.emptyList()))
+            if (i > eopBlocksIndex && i <= lastCandidate)
+                match(matchingDirection.matchUp, edges.start[i], edges.start[eopBlocksIndex], ret);
+        for (int i : edges.headers.getOrDefault(edges.firstFingerprint[eopBlocksIndex], Collections.emptyList()))
+            if (i > eopBlocksIndex && i <= lastCandidate)
+                match(matchingDirection.matchDown,
+                      position(eopBlocks.get(i) + 1, -1),
+                      position(eopBlocks.get(eopBlocksIndex) + 1, -1), ret);
         return ret;
     }
 
-    class reversePairSort implements Comparator<Pair<Integer, Integer>> {
-        @Override
-        public int compare(Pair<Integer, Integer> o1, Pair<Integer, Integer> o2) {
-            if (o1.getKey() > o2.getKey())
-                return -1;
-            if (o1.getKey() < o2.getKey())
-                return 1;
-            if (o1.getValue() > o2.getValue())
-                return -1;
-            if (o1.getValue() < o2.getValue())
-                return 1;
-            return 0;
-        }
+    Set<Line> markHeadersAndFooters(int fromPage, int toPage)
+    {
+        PageEdges edges = new PageEdges();
+        return IntStream.range(fromPage, min(toPage, eopBlocks.size()))
+                .parallel()
+                .mapToObj(Metrics.forked(i -> needsToBeRemoved(edges, i)))
+                .flatMap(Set::stream)
+                .map(this::getLine)
+                .collect(Collectors.toCollection(() -> Collections.newSetFromMap(new IdentityHashMap<>())));
     }
 
-    public void RemoveHeadersAndFooters()
+    void removeLines(Set<Line> marked)
     {
-        Set<Pair<Integer, Integer>> markedToRemove = new TreeSet<>(new reversePairSort());
-        for (int i = 0; i < eopBlocks.size(); i++)
-            markedToRemove.addAll(needsToBeRemoved(i));
         for (Integer eopBlock : eopBlocks) {
             int blockNum = eopBlock;
             for (;
-                 blockNum >= 0 && markedToRemove.contains(new Pair<>(blockNum, 0));
+                 blockNum >= 0 && marked.contains(blocks.get(blockNum).lines.get(0));
                  --blockNum);
             if (blockNum >= 0)
                 blocks.get(blockNum).endOfPage = true;
         }
-        for (Pair<Integer, Integer> blockLine : markedToRemove) {
-            blocks.get(blockLine.getKey()).lines.remove((int)blockLine.getValue());
-            if (blocks.get(blockLine.getKey()).lines.isEmpty())
-                blocks.remove((int)blockLine.getKey());
+        int w = 0;
+        for (Block block : blocks) {
+            if (block.lines.removeIf(marked::remove))
+                block.invalidate();
+            if (!block.lines.isEmpty())
+                blocks.set(w++, block);
         }
-        return;
+        blocks.subList(w, blocks.size()).clear();
     }
 
-    private float getMedianFirstLinePos(int blockNum, int searchInterval)
+    public void RemoveHeadersAndFooters()
     {
-        List<Float> positions = new ArrayList<>();
-        for (int i = max(blockNum - searchInterval, 0); i <= min(blockNum + searchInterval, blocks.size() - 1); i++) {
-            if (i == blockNum)
-                continue;
-            Block b = blocks.get(i);
-            if (b.lines.isEmpty())
-                continue;
-            positions.add(b.lines.get(0).xMin());
+        removeLines(markHeadersAndFooters(0, eopBlocks.size()));
+    }
+
+    private class FirstLineWindow {
+        final int searchInterval;
+        final SlidingMedian median;
+        int w = 0, r = 0;
+
+        FirstLineWindow(int searchInterval)
+        {
+            this.searchInterval = searchInterval;
+            median = new SlidingMedian(2 * searchInterval);
+            for (int i = 1; i <= min(searchInterval, blocks.size() - 1); i++)
+                add(blocks.get(i));
+        }
+
+        private void add(Block b)
+        {
+            if (!b.lines.isEmpty())
+                median.add(b.lines.get(0).xMin());
+        }
+
+        private void remove(Block b)
+        {
+            if (!b.lines.isEmpty())
+                median.remove(b.lines.get(0).xMin());
+        }
+
+        void moveTo(int newW, int newR)
+        {
+            for (; w < newW; w++) {
+                add(blocks.get(w));
+                if (w - searchInterval >= 0)
+                    remove(blocks.get(w - searchInterval));
+            }
+            for (; r < newR; r++) {
+                remove(blocks.get(r + 1));
+                if (r + 1 + searchInterval < blocks.size())
+                    add(blocks.get(r + 1 + searchInterval));
+            }
+        }
+
+        float get()
+        {
+            return median.median();
+        }
+
+        void shift(int count)
+        {
+            w -= count;
+            r -= count;
+        }
+    }
+
+    /**
+     * A left-to-right pass over {@link #blocks} that can be resumed as more
+     * blocks are appended. advance() runs every step whose look-ahead is
+     * already present, or all of them when {@code last} is set, and returns
+     * how many leading blocks no later step reads or changes.
+     */
+    abstract class Scan {
+        abstract int advance(boolean last);
+
+        abstract void shift(int count);
+
+        List<Block> take(int count)
+        {
+            List<Block> head = new ArrayList<>(blocks.subList(0, count));
+            blocks.subList(0, count).clear();
+            shift(count);
+            return head;
+        }
+    }
+
+    private interface MergeCondition {
+        boolean test(int w, int r, FirstLineWindow window);
+    }
+
+    private class MergeScan extends Scan {
+        private final MergeCondition condition;
+        private FirstLineWindow window;
+        private int w = 0, r = 0;
+
+        MergeScan(MergeCondition condition)
+        {
+            this.condition = condition;
+        }
+
+        @Override
+        int advance(boolean last)
+        {
+            if (window == null) {
+                if (!last && blocks.size() <= 5)
+                    return 0;
+                window = new FirstLineWindow(5);
+            }
+            for (; r < blocks.size() && (last || r + 5 < blocks.size()); r++, w++) {
+                window.moveTo(w, r);
+                blocks.set(w, blocks.get(r));
+                if (r < blocks.size() - 1 && condition.test(w, r, window))
+                    blocks.get(w).Append(blocks.get(++r));
+            }
+            if (!last)
+                return max(0, w - 6);
+            blocks.subList(w, blocks.size()).clear();
+            return w;
+        }
+
+        @Override
+        void shift(int count)
+        {
+            w -= count;
+            r -= count;
+            if (window != null)
+                window.shift(count);
+        }
+    }
+
+    private class AlignmentScan extends Scan {
+        private FirstLineWindow window;
+        private int filled = 0, i = 0;
+
+        @Override
+        int advance(boolean last)
+        {
+            for (; filled < blocks.size(); filled++)
+                blocks.get(filled).FillAlignment();
+            if (window == null) {
+                if (last && blocks.size() <= 1)
+                    return blocks.size();
+                if (!last && blocks.size() <= 5)
+                    return 0;
+                window = new FirstLineWindow(5);
+            }
+            for (; i < blocks.size() && (last || i + 6 < blocks.size()); i++) {
+                window.moveTo(i, i);
+                fillAlignment(i, window);
+            }
+            return last ? blocks.size() : max(0, i - 7);
+        }
+
+        @Override
+        void shift(int count)
+        {
+            filled -= count;
+            i -= count;
+            if (window != null)
+                window.shift(count);
+        }
+    }
+
+    private class TableScan extends Scan {
+        private final List<List<List<Block>>> tables = new ArrayList<>();
+        private List<List<Block>> table = new ArrayList<>();
+        private List<Block> line = new ArrayList<>();
+        private int i = 1;
+
+        @Override
+        int advance(boolean last)
+        {
+            renumberBlocks(0);
+            for (; i < blocks.size(); i++) {
+                if (blocks.get(i).type.type == Block.Type.Table || blocks.get(i-1).type.type == Block.Type.Table)
+                    continue;
+                if (!blocks.get(i-1).PlacedBefore(blocks.get(i)) && !blocks.get(i).PlacedBefore(blocks.get(i-1))
+                        || (!line.isEmpty() || !table.isEmpty())
+                            && blocks.get(i-1).VerticallyIntersect(blocks.get(i))
+                            && blocks.get(i-1).Width() < Width() / 2
+                            && blocks.get(i).Width() < Width() / 2
+                            && abs(blocks.get(i-1).Width() - blocks.get(i).getFirstLine().Width()) < Width() / 3) {
+                    if (line.isEmpty())
+                        line.add(blocks.get(i-1));
+                    line.add(blocks.get(i));
+                } else {
+                    if (!line.isEmpty()) {
+                        table.add(line);
+                        line = new ArrayList<>();
+                    } else if (!table.isEmpty() && line.isEmpty()) {
+                        tables.add(table);
+                        table = new ArrayList<>();
+                    }
+                }
+            }
+            int size = blocks.size();
+            addTables(tables);
+            tables.clear();
+            i -= size - blocks.size();
+            if (last)
+                return blocks.size();
+            if (!table.isEmpty())
+                return table.get(0).get(0).ordinal;
+            if (!line.isEmpty())
+                return line.get(0).ordinal;
+            return max(0, i - 1);
+        }
+
+        @Override
+        void shift(int count)
+        {
+            i -= count;
         }
-        Float[] posArr = positions.toArray(new Float[]{});
-        Sort.quickSelect(posArr, posArr.length / 2);
-        return posArr[posArr.length / 2];
+    }
+
+    Scan firstLinesScan()
+    {
+        return new MergeScan(this::firstLineBelongsToNext);
+    }
+
+    Scan alignmentsScan()
+    {
+        return new AlignmentScan();
+    }
+
+    Scan eopBlocksScan()
+    {
+        return new MergeScan((w, r, window) -> continuesOnNextPage(w, r, (yMax - yMin) / 10, window));
+    }
+
+    Scan tablesScan()
+    {
+        return new TableScan();
+    }
+
+    private boolean firstLineBelongsToNext(int w, int r, FirstLineWindow window)
+    {
+        Block cur = blocks.get(w);
+        Block next = blocks.get(r + 1);
+        if (cur.lines.size() != 1)
+            return false;
+        if (next.lines.isEmpty())
+            return false;
+        if (!next.isLeftAligned())
+            return false;
+        if (cur.getFirstLine().GetAlignWith(next.getFirstLine()) != Style.AlignType.Unknown)
+            return false;
+        if (abs(cur.lines.get(0).xMin() - window.get())
+                    > max(cur.lines.get(0).Width(), next.getMaxLineWidth()) / 80)
+            return false;
+        if (!cur.getMedianStyle().almostEquals(next.getMedianStyle()))
+            return false;
+        if (!cur.endOfPage && !cur.lines.get(0).Near(next.lines.get(0)))
+            return false;
+        return true;
     }
 
     public void mergeFirstLinesWithRest()
     {
-        for (int i = 0; i < blocks.size() - 1; i++) {
-            if (blocks.get(i).lines.size() != 1)
-                continue;
-            if (blocks.get(i+1).lines.isEmpty())
-                continue;
-            if (!blocks.get(i+1).isLeftAligned())
-                continue;
-            if (blocks.get(i).getFirstLine().GetAlignWith(blocks.get(i+1).getFirstLine()) != Style.AlignType.Unknown)
-                continue;
-            if (abs(blocks.get(i).lines.get(0).xMin() - getMedianFirstLinePos(i, 5))
-                        > max(blocks.get(i).lines.get(0).Width(), blocks.get(i+1).getMaxLineWidth()) / 80)
-                continue;
-            if (!blocks.get(i).getMedianStyle().almostEquals(blocks.get(i+1).getMedianStyle()))
-                continue;
-            if (!blocks.get(i).endOfPage && !blocks.get(i).lines.get(0).Near(blocks.get(i+1).lines.get(0)))
-                continue;
-            blocks.get(i).Append(blocks.get(i+1));
-            blocks.remove(i+1);
-        }
+        firstLinesScan().advance(true);
+    }
+
+    private boolean continuesOnNextPage(int w, int r, float vertEps, FirstLineWindow window)
+    {
+        Block cur = blocks.get(w);
+        Block next = blocks.get(r + 1);
+        if (!cur.endOfPage)
+            return false;
+        if (!cur.getMedianStyle().almostEquals(next.getMedianStyle()))
+            return false;
+        if (abs(cur.getLastLine().yMax() - yMax) > vertEps)
+            return false;
+        if (abs(next.getFirstLine().yMin() - yMin) > vertEps)
+            return false;
+        return     cur.alignment != Style.AlignType.Unknown
+                && cur.alignment != Style.AlignType.Multiple
+                && next.alignment != Style.AlignType.Multiple
+                &&
+                (  cur.alignment == next.alignment
+                || cur.getLastLine().GetAlignWith(next.getFirstLine()) == cur.alignment)
+                ||
+                ( (cur.alignment == Style.AlignType.Full
+                || cur.alignment == Style.AlignType.Multiple)
+                && next.lines.size() == 1
+                && next.getFirstLine().GetAlignWith(cur.getLastLine()) == Style.AlignType.Left)
+                ||
+                (next.alignment == Style.AlignType.Full
+                || next.alignment == Style.AlignType.Multiple)
+                && cur.lines.size() == 1
+                && abs(cur.getFirstLine().xMin() - window.get())
+                           < max(cur.getFirstLine().Width(), next.getMaxLineWidth()) / 80
+                && next.getFirstLine().GetAlignWith(cur.getLastLine()) == Style.AlignType.Right
+                ||
+                   next.alignment != Style.AlignType.Unknown
+                && next.alignment != Style.AlignType.Multiple
+                && cur.getLastLine().GetAlignWith(next.getFirstLine()) == next.alignment;
     }
 
     public void mergeEopBlocks()
     {
-        float vertEps = (yMax - yMin) / 10;
-        for (int i = 0; i < blocks.size() - 1; i++) {
-            if (!blocks.get(i).endOfPage)
-                continue;
-            if (!blocks.get(i).getMedianStyle().almostEquals(blocks.get(i+1).getMedianStyle()))
-                continue;
-            if (abs(blocks.get(i).getLastLine().yMax() - yMax) > vertEps)
-                continue;
-            if (abs(blocks.get(i+1).getFirstLine().yMin() - yMin) > vertEps)
-                continue;
-            if (       blocks.get(i).alignment != Style.AlignType.Unknown
-                    && blocks.get(i).alignment != Style.AlignType.Multiple
-                    && blocks.get(i+1).alignment != Style.AlignType.Multiple
-                    &&
-                    (  blocks.get(i).alignment == blocks.get(i+1).alignment
-                    || blocks.get(i).getLastLine().GetAlignWith(blocks.get(i+1).getFirstLine()) == blocks.get(i).alignment)
-                    ||
-                    ( (blocks.get(i).alignment == Style.AlignType.Full
-                    || blocks.get(i).alignment == Style.AlignType.Multiple)
-                    && blocks.get(i+1).lines.size() == 1
-                    && blocks.get(i+1).getFirstLine().GetAlignWith(blocks.get(i).getLastLine()) == Style.AlignType.Left)
-                    ||
-                    (blocks.get(i+1).alignment == Style.AlignType.Full
-                    || blocks.get(i+1).alignment == Style.AlignType.Multiple)
-                    && blocks.get(i).lines.size() == 1
-                    && abs(blocks.get(i).getFirstLine().xMin() - getMedianFirstLinePos(i, 5))
-                               < max(blocks.get(i).getFirstLine().Width(), blocks.get(i+1).getMaxLineWidth()) / 80
-                    && blocks.get(i+1).getFirstLine().GetAlignWith(blocks.get(i).getLastLine()) == Style.AlignType.Right
-                    ||
-                       blocks.get(i+1).alignment != Style.AlignType.Unknown
-                    && blocks.get(i+1).alignment != Style.AlignType.Multiple
-                    && blocks.get(i).getLastLine().GetAlignWith(blocks.get(i+1).getFirstLine()) == blocks.get(i+1).alignment) {
-                blocks.get(i).Append(blocks.get(i + 1));
-                blocks.remove(i + 1);
-            }
-        }
+        eopBlocksScan().advance(true);
     }
 
     public void FillBlocksAlignments()
     {
-        for (Block block : blocks)
-            block.FillAlignment();
-        if (blocks.size() <= 1)
+        alignmentsScan().advance(true);
+    }
+
+    private void fillAlignment(int i, FirstLineWindow window)
+    {
+        if (blocks.get(i).alignment != Style.AlignType.Unknown && blocks.get(i).alignment != Style.AlignType.Multiple
+                && !(blocks.get(i).lines.size() <= 3 && blocks.get(i).alignment == Style.AlignType.Full))
             return;
-        for (int i = 0; i < blocks.size(); i++) {
-            if (blocks.get(i).alignment != Style.AlignType.Unknown && blocks.get(i).alignment != Style.AlignType.Multiple
-                    && !(blocks.get(i).lines.size() <= 3 && blocks.get(i).alignment == Style.AlignType.Full))
+        float xMin = Float.MAX_VALUE;
+        float xMax = Float.MIN_VALUE;
+        for (int j = max(0, i - 7); j < min(blocks.size(), i + 7); j++) {
+            if (i == j
+                || (j < i && blocks.get(j).getFirstPage() != blocks.get(i).getFirstPage())
+                || (j > i && blocks.get(j).getLastPage() != blocks.get(i).getLastPage()))
                 continue;
-            float xMin = Float.MAX_VALUE;
-            float xMax = Float.MIN_VALUE;
-            for (int j = max(0, i - 7); j < min(blocks.size(), i + 7); j++) {
-                if (i == j
-                    || (j < i && blocks.get(j).getFirstPage() != blocks.get(i).getFirstPage())
-                    || (j > i && blocks.get(j).getLastPage() != blocks.get(i).getLastPage()))
-                    continue;
-                if (blocks.get(j).xMin() < xMin)
-                    xMin = blocks.get(j).xMin();
-                if (blocks.get(j).xMax() > xMax)
-                    xMax = blocks.get(j).xMax();
-            }
-            float selfXmin = blocks.get(i).xMin();
-            float selfXmax = blocks.get(i).xMax();
-            float eps = blocks.get(i).getEps();
-            if (blocks.get(i).lines.size() == 1 || (blocks.get(i).lines.size() <= 3 && blocks.get(i).alignment == Style.AlignType.Full)) {
-                if (abs((selfXmin - xMin) - (xMax - selfXmax)) < eps)
-                    blocks.get(i).alignment = Style.AlignType.Center;
-                if (abs(xMin - selfXmin) < eps || abs(selfXmin - getMedianFirstLinePos(i, 5)) < eps)
-                    if (blocks.get(i).alignment != Style.AlignType.Unknown && abs(xMax - selfXmax) < eps) {
-                        blocks.get(i).alignment = Style.AlignType.Multiple;
-                        continue;
-                    } else {
-                        blocks.get(i).alignment = Style.AlignType.Left;
-                    }
-                if (abs(xMax - selfXmax) < eps)
-                    if (blocks.get(i).alignment != Style.AlignType.Unknown) {
-                        blocks.get(i).alignment = Style.AlignType.Multiple;
-                        continue;
-                    } else {
-                        blocks.get(i).alignment = Style.AlignType.Right;
-                    }
-            } else if (blocks.get(i).lines.size() == 2 &&
-                    abs(blocks.get(i).lines.get(0).xMin() - getMedianFirstLinePos(i, 5)) < eps &&
-                    abs(blocks.get(i).lines.get(0).xMax() - xMax) < eps &&
-                    abs(blocks.get(i).lines.get(1).xMin() - xMin) < eps)
-                    blocks.get(i).alignment = Style.AlignType.Full;
+            if (blocks.get(j).xMin() < xMin)
+                xMin = blocks.get(j).xMin();
+            if (blocks.get(j).xMax() > xMax)
+                xMax = blocks.get(j).xMax();
         }
+        float selfXmin = blocks.get(i).xMin();
+        float selfXmax = blocks.get(i).xMax();
+        float eps = blocks.get(i).getEps();
+        if (blocks.get(i).lines.size() == 1 || (blocks.get(i).lines.size() <= 3 && blocks.get(i).alignment == Style.AlignType.Full)) {
+            if (abs((selfXmin - xMin) - (xMax - selfXmax)) < eps)
+                blocks.get(i).alignment = Style.AlignType.Center;
+            if (abs(xMin - selfXmin) < eps || abs(selfXmin - window.get()) < eps)
+                if (blocks.get(i).alignment != Style.AlignType.Unknown && abs(xMax - selfXmax) < eps) {
+                    blocks.get(i).alignment = Style.AlignType.Multiple;
+                    return;
+                } else {
+                    blocks.get(i).alignment = Style.AlignType.Left;
+                }
+            if (abs(xMax - selfXmax) < eps)
+                if (blocks.get(i).alignment != Style.AlignType.Unknown) {
+                    blocks.get(i).alignment = Style.AlignType.Multiple;
+                    return;
+                } else {
+                    blocks.get(i).alignment = Style.AlignType.Right;
+                }
+        } else if (blocks.get(i).lines.size() == 2 &&
+                abs(blocks.get(i).lines.get(0).xMin() - window.get()) < eps &&
+                abs(blocks.get(i).lines.get(0).xMax() - xMax) < eps &&
+                abs(blocks.get(i).lines.get(1).xMin() - xMin) < eps)
+                blocks.get(i).alignment = Style.AlignType.Full;
     }
 
     public void MergeLinesInsideBlocks()
@@ -324,10 +622,10 @@ public class Document {
 
     public void FillStylesHist()
     {
+        renumberBlocks(0);
         Map<Style, Set<Block>> histMultiAlign = new TreeMap<>();
         for (Block block : blocks) {
-            Style style = block.getMedianStyle();
-            style.align = block.alignment;
+            Style style = block.getMedianStyle().withAlign(block.alignment);
             Map<Style, Set<Block>> h = (style.align == Style.AlignType.Multiple || style.align == Style.AlignType.Unknown) ? histMultiAlign : hist;
             if (!h.containsKey(style))
                 h.put(style, new TreeSet<Block>(new BlocksComparator()));
@@ -352,13 +650,22 @@ public class Document {
         if (l.stream().map(b -> b.number.size()).distinct().count() > 1)
             return false;
         for (int i = 0; i < l.size() - 1; i++) {
-            for (int i1 = 0; i1 < l.get(i).number.size(); i1++)
-                if (l.get(i).cmp.compare(l.get(i).number.get(i1), l.get(i+1).number.get(i1)) >= 0)
-                    return false;
+            if (!labelFollows(l.get(i), l.get(i+1)))
+                return false;
         }
         return true;
     }
 
+    private static boolean labelFollows(Block.BlockType prev, Block.BlockType next)
+    {
+        if (!Objects.equals(prev.numberType, next.numberType) || prev.number.size() != next.number.size())
+            return false;
+        for (int i = 0; i < prev.number.size(); i++)
+            if (prev.cmp.compare(prev.number.get(i), next.number.get(i)) >= 0)
+                return false;
+        return true;
+    }
+
     public void FillBlocksTypes()
     {
         for (Block block : blocks)
@@ -382,48 +689,138 @@ public class Document {
         }
     }
 
-    private List<Block> getHierarchy(List<Block> flat)
+    /**
+     * FillBlocksTypes for a document that arrives in pieces. {@code numbering}
+     * keeps the last label of every prefix and delimiter seen so far, or null
+     * once that numbering broke, so each label is checked against the one
+     * before it as if the whole document were grouped at once.
+     */
+    void FillBlocksTypes(Map<Pair<String, String>, Block.BlockType> numbering)
     {
-        for (Map.Entry<Style, Set<Block>> styleSetEntry : hist.entrySet()) {
-            if ( Arrays.asList(
-                    Style.AlignType.Unknown,
-                    Style.AlignType.Right,
-                    Style.AlignType.Multiple
-                 ).contains(styleSetEntry.getKey().align))
-                continue;
-            List<Integer> idxs = new ArrayList<>();
-            boolean notHierarchical = false;
-            for (Block block : styleSetEntry.getValue()) {
-                if (flat.contains(block))
-                    idxs.add(flat.indexOf(block));
-                if (block.type.type == Block.Type.NumberedLabel && !block.type.labelPrefix.contains("§"))
-                    return flat;
-                if (Arrays.asList(Block.Type.Formula, Block.Type.Table).contains(block.type.type))
-                    notHierarchical = true;
+        for (Block block : blocks) {
+            block.FillType();
+            if (block.type.type == Block.Type.NumberedLabel) {
+                Pair<String, String> key = new Pair<>(block.type.labelPrefix, block.type.delim);
+                Block.BlockType prev = numbering.get(key);
+                boolean consistent = !numbering.containsKey(key) || prev != null && labelFollows(prev, block.type);
+                numbering.put(key, consistent ? block.type : null);
+                if (key.getKey().contains("§") || !consistent)
+                    block.type.type = key.getKey().contains("§") ? Block.Type.Numbered : Block.Type.PlainText;
             }
-            if (idxs.size() < 2 || notHierarchical)
-                continue;
-            List<Block> res = new ArrayList<>();
-            res.addAll(getHierarchy(new ArrayList<>(flat.subList(0, idxs.get(0)))));
+            if (block.looksLikeFormula())
+                block.type.type = Block.Type.Formula;
+        }
+    }
+
+    private class HierarchyBuilder {
+        final List<int[]> levels = new ArrayList<>();
+        final int[] sonsBefore = new int[blocks.size() + 1];
+        final Map<Long, int[]> decisions = new HashMap<>();
 
-            for (int i = 0; i < idxs.size(); i++) {
-                if (flat.size() > idxs.get(i) + 1) {
-                    int toIdx = i + 1 == idxs.size() ? flat.size() : idxs.get(i + 1);
-                    flat.get(idxs.get(i)).sons = getHierarchy(new ArrayList<>(flat.subList(idxs.get(i) + 1, toIdx)));
+        HierarchyBuilder()
+        {
+            for (int i = 0; i < blocks.size(); i++)
+                sonsBefore[i + 1] = sonsBefore[i] + (blocks.get(i).sons.isEmpty() ? 0 : 1);
+            rankStyles();
+        }
+
+        private void rankStyles()
+        {
+            for (Map.Entry<Style, Set<Block>> styleSetEntry : hist.entrySet()) {
+                if ( Arrays.asList(
+                        Style.AlignType.Unknown,
+                        Style.AlignType.Right,
+                        Style.AlignType.Multiple
+                     ).contains(styleSetEntry.getKey().align))
+                    continue;
+                List<Integer> idxs = new ArrayList<>();
+                boolean notHierarchical = false;
+                for (Block block : styleSetEntry.getValue()) {
+                    if (block.ordinal >= 0 && block.ordinal < blocks.size() && blocks.get(block.ordinal) == block)
+                        idxs.add(block.ordinal);
+                    if (block.type.type == Block.Type.NumberedLabel && !block.type.labelPrefix.contains("§"))
+                        return;
+                    if (Arrays.asList(Block.Type.Formula, Block.Type.Table).contains(block.type.type))
+                        notHierarchical = true;
                 }
-                res.add(flat.get(idxs.get(i)));
+                if (idxs.size() < 2 || notHierarchical)
+                    continue;
+                levels.add(idxs.stream().mapToInt(Integer::intValue).sorted().toArray());
             }
-            if (res.stream().map(block -> block.sons.size()).filter(integer -> integer > 0).count() > 1)
-                return res;
-            else
-                flat.forEach(block -> block.sons.clear());
         }
-        return flat;
+
+        private int lowerBound(int[] idxs, int from)
+        {
+            int idx = Arrays.binarySearch(idxs, from);
+            return idx >= 0 ? idx : -idx - 1;
+        }
+
+        private int sonsAfterMembers(int[] idxs, int lo, int hi, int to)
+        {
+            int count = 0;
+            for (int i = lo; i < hi; i++)
+                if (idxs[i] + 1 < (i + 1 == hi ? to : idxs[i + 1]))
+                    count++;
+            return count;
+        }
+
+        private int[] decide(int from, int to, boolean clean)
+        {
+            long key = (long) from << 33 | (long) to << 1 | (clean ? 1 : 0);
+            int[] decision = decisions.get(key);
+            if (decision != null)
+                return decision;
+            boolean rejected = false;
+            for (int level = 0; level < levels.size() && decision == null; level++) {
+                int[] idxs = levels.get(level);
+                int lo = lowerBound(idxs, from);
+                int hi = lowerBound(idxs, to);
+                if (hi - lo < 2)
+                    continue;
+                int count = sonsAfterMembers(idxs, lo, hi, to);
+                if (count < 2)
+                    count += countWithSons(from, idxs[lo], clean && !rejected);
+                if (count > 1)
+                    decision = new int[]{level, count, rejected ? 1 : 0};
+                else
+                    rejected = true;
+            }
+            if (decision == null)
+                decision = new int[]{-1, clean && !rejected ? sonsBefore[to] - sonsBefore[from] : 0, rejected ? 1 : 0};
+            decisions.put(key, decision);
+            return decision;
+        }
+
+        private int countWithSons(int from, int to, boolean clean)
+        {
+            return from < to ? decide(from, to, clean)[1] : 0;
+        }
+
+        List<Block> build(int from, int to, boolean clean)
+        {
+            int[] decision = from < to ? decide(from, to, clean) : new int[]{-1, 0, 0};
+            if (decision[2] == 1)
+                blocks.subList(from, to).forEach(block -> block.sons.clear());
+            if (decision[0] < 0)
+                return new ArrayList<>(blocks.subList(from, to));
+            clean = clean && decision[2] == 0;
+            int[] idxs = levels.get(decision[0]);
+            int lo = lowerBound(idxs, from);
+            int hi = lowerBound(idxs, to);
+            List<Block> res = build(from, idxs[lo], clean);
+            for (int i = lo; i < hi; i++) {
+                Block block = blocks.get(idxs[i]);
+                if (idxs[i] + 1 < to)
+                    block.sons = build(idxs[i] + 1, i + 1 == hi ? to : idxs[i + 1], clean);
+                res.add(block);
+            }
+            return res;
+        }
     }
 
     public void fillHierarchy()
     {
-        hierarchy = getHierarchy(blocks);
+        hierarchy = new HierarchyBuilder().build(0, blocks.size(), true);
     }
 
     public String getHeaders() {
@@ -437,42 +834,28 @@ public class Document {
         return tmp.getHeaders();
     }
 
-    private void addTable(List<List<Block>> table)
+    private void addTables(List<List<List<Block>>> tables)
     {
-        int firstIdx = blocks.indexOf(table.get(0).get(0));
-        List<Block> lastRow = table.get(table.size() - 1);
-        int lastIdx = blocks.indexOf(lastRow.get(lastRow.size() - 1));
-        for (int i = firstIdx; i <= lastIdx; i++)
-            blocks.remove(firstIdx);
-        blocks.add(firstIdx, new Table(table));
+        if (tables.isEmpty())
+            return;
+        List<Block> result = new ArrayList<>(blocks.size());
+        int next = 0;
+        for (List<List<Block>> table : tables) {
+            int firstIdx = table.get(0).get(0).ordinal;
+            List<Block> lastRow = table.get(table.size() - 1);
+            int lastIdx = lastRow.get(lastRow.size() - 1).ordinal;
+            assert (blocks.get(firstIdx) == table.get(0).get(0) && blocks.get(lastIdx) == lastRow.get(lastRow.size() - 1));
+            result.addAll(blocks.subList(next, firstIdx));
+            result.add(new Table(table));
+            next = lastIdx + 1;
+        }
+        result.addAll(blocks.subList(next, blocks.size()));
+        blocks = result;
+        renumberBlocks(0);
     }
 
     public void findTables()
     {
-        List<List<Block>> table = new ArrayList<>();
-        List<Block> line = new ArrayList<>();
-        for (int i = 1; i < blocks.size(); i++) {
-            if (blocks.get(i).type.type == Block.Type.Table || blocks.get(i-1).type.type == Block.Type.Table)
-                continue;
-            if (!blocks.get(i-1).PlacedBefore(blocks.get(i)) && !blocks.get(i).PlacedBefore(blocks.get(i-1))
-                    || (!line.isEmpty() || !table.isEmpty())
-                        && blocks.get(i-1).VerticallyIntersect(blocks.get(i))
-                        && blocks.get(i-1).Width() < Width() / 2
-                        && blocks.get(i).Width() < Width() / 2
-                        && abs(blocks.get(i-1).Width() - blocks.get(i).getFirstLine().Width()) < Width() / 3) {
-                if (line.isEmpty())
-                    line.add(blocks.get(i-1));
-                line.add(blocks.get(i));
-            } else {
-                if (!line.isEmpty()) {
-                    table.add(line);
-                    line = new ArrayList<>();
-                } else if (!table.isEmpty() && line.isEmpty()) {
-                    addTable(table);
-                    findTables();
-                    return;
-                }
-            }
-        }
+        tablesScan().advance(true);
     }
 }
@@ -0,0 +1,64 @@
+package com.github.igor_anferov.PDFparser;
+
+import jdk.jfr.*;
+
+/**
+ * Only touched when jdk.jfr is present, so the rest of the parser keeps
+ * running on JVMs without Flight Recorder.
+ */
+final class JfrEvents {
+    private JfrEvents() {}
+
+    @Name("com.github.igor_anferov.PDFparser.Phase")
+    @Label("Document Phase")
+    @Category("PDFparser")
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    @Name("com.github.igor_anferov.PDFparser.Page")
+    @Label("Page Ingest")
+    @Category("PDFparser")
+    static class PageEvent extends Event {
+        @Label("Page")
+        int page;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    static Object beginPhase(String phase)
+    {
+        PhaseEvent event = new PhaseEvent();
+        event.phase = phase;
+        event.begin();
+        return event;
+    }
+
+    static Object beginPage(int page)
+    {
+        PageEvent event = new PageEvent();
+        event.page = page;
+        event.begin();
+        return event;
+    }
+
+    static void commit(Object event, long allocated)
+    {
+        Event jfrEvent = (Event) event;
+        jfrEvent.end();
+        if (!jfrEvent.shouldCommit())
+            return;
+        if (event instanceof PhaseEvent)
+            ((PhaseEvent) event).allocated = allocated;
+        else if (event instanceof PageEvent)
+            ((PageEvent) event).allocated = allocated;
+        jfrEvent.commit();
+    }
+}
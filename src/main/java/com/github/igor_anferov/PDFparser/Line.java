@@ -1,11 +1,5 @@
 package com.github.igor_anferov.PDFparser;
 
-import javafx.util.Pair;
-import org.apache.commons.lang3.StringUtils;
-
-import javax.xml.bind.annotation.XmlElement;
-import javax.xml.bind.annotation.XmlRootElement;
-import javax.xml.bind.annotation.XmlTransient;
 import javax.xml.bind.annotation.XmlValue;
 import java.util.*;
 import java.util.regex.Matcher;
@@ -16,32 +10,187 @@ import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 public class Line {
+    private static final float[] NO_FLOATS = new float[0];
+    private static final int[] NO_INTS = new int[0];
+
     @XmlValue
-    public String text;
-    @XmlTransient
-    public List<Style> styles;
-    @XmlTransient
-    public List<OnPagePosition> onPagePositions;
+    public String text = "";
+    final StyleRegistry registry;
+    int length = 0;
+    float[] charXMin = NO_FLOATS;
+    float[] charXMax = NO_FLOATS;
+    float[] charYMin = NO_FLOATS;
+    float[] charYMax = NO_FLOATS;
+    int[] charPage = NO_INTS;
+    int[] charStyle = NO_INTS;
+
+    private boolean summaryValid = false;
+    private float summaryXMin, summaryXMax, summaryYMin, summaryYMax, minCharWidth;
+    private int medianStyle = -1;
+    private int[] styleIds;
+    private long styleMask;
+    private String fingerprint;
+    private Tokens tokens;
+
+    Line(StyleRegistry registry)
+    {
+        this.registry = registry;
+    }
 
     public String toString() {
         return text;
     }
 
-    static private Pattern noHeadingAndTrailingSpaces = Pattern.compile("\\S+(?:\\s+\\S+)*");
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity <= charPage.length)
+            return;
+        capacity = max(capacity, max(16, charPage.length * 2));
+        charXMin = Arrays.copyOf(charXMin, capacity);
+        charXMax = Arrays.copyOf(charXMax, capacity);
+        charYMin = Arrays.copyOf(charYMin, capacity);
+        charYMax = Arrays.copyOf(charYMax, capacity);
+        charPage = Arrays.copyOf(charPage, capacity);
+        charStyle = Arrays.copyOf(charStyle, capacity);
+    }
+
+    void addChar(int style, int page, float xMin, float xMax, float yMin, float yMax)
+    {
+        ensureCapacity(length + 1);
+        charStyle[length] = style;
+        charPage[length] = page;
+        charXMin[length] = xMin;
+        charXMax[length] = xMax;
+        charYMin[length] = yMin;
+        charYMax[length] = yMax;
+        length++;
+        updateSummary(length - 1);
+    }
+
+    private void addChars(Line other, int from, int to)
+    {
+        int count = to - from;
+        ensureCapacity(length + count);
+        System.arraycopy(other.charStyle, from, charStyle, length, count);
+        System.arraycopy(other.charPage, from, charPage, length, count);
+        System.arraycopy(other.charXMin, from, charXMin, length, count);
+        System.arraycopy(other.charXMax, from, charXMax, length, count);
+        System.arraycopy(other.charYMin, from, charYMin, length, count);
+        System.arraycopy(other.charYMax, from, charYMax, length, count);
+        length += count;
+        updateSummary(length - count);
+    }
+
+    private void keepChars(int from, int to)
+    {
+        int count = to - from;
+        if (from > 0) {
+            System.arraycopy(charStyle, from, charStyle, 0, count);
+            System.arraycopy(charPage, from, charPage, 0, count);
+            System.arraycopy(charXMin, from, charXMin, 0, count);
+            System.arraycopy(charXMax, from, charXMax, 0, count);
+            System.arraycopy(charYMin, from, charYMin, 0, count);
+            System.arraycopy(charYMax, from, charYMax, 0, count);
+        }
+        length = count;
+        invalidateSummary();
+    }
+
+    private void updateSummary(int from)
+    {
+        styleIds = null;
+        fingerprint = null;
+        tokens = null;
+        if (from == 0) {
+            summaryXMin = summaryYMin = minCharWidth = Float.MAX_VALUE;
+            summaryXMax = summaryYMax = -Float.MAX_VALUE;
+            summaryValid = true;
+        } else if (!summaryValid) {
+            return;
+        }
+        for (int i = from; i < length; i++) {
+            if (charXMin[i] < summaryXMin)
+                summaryXMin = charXMin[i];
+            if (charXMax[i] > summaryXMax)
+                summaryXMax = charXMax[i];
+            if (charYMin[i] < summaryYMin)
+                summaryYMin = charYMin[i];
+            if (charYMax[i] > summaryYMax)
+                summaryYMax = charYMax[i];
+            if (charXMax[i] - charXMin[i] < minCharWidth)
+                minCharWidth = charXMax[i] - charXMin[i];
+        }
+    }
+
+    private void invalidateSummary()
+    {
+        summaryValid = false;
+        styleIds = null;
+        fingerprint = null;
+        tokens = null;
+    }
+
+    private void ensureSummary()
+    {
+        assert (!isEmpty());
+        if (!summaryValid)
+            updateSummary(0);
+    }
+
+    public Style getStyle(int i)
+    {
+        return registry.get(charStyle[i]);
+    }
+
+    public OnPagePosition getPosition(int i)
+    {
+        OnPagePosition pos = new OnPagePosition();
+        pos.page = charPage[i];
+        pos.xMin = charXMin[i];
+        pos.xMax = charXMax[i];
+        pos.yMin = charYMin[i];
+        pos.yMax = charYMax[i];
+        return pos;
+    }
+
+    static boolean isSpace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
 
     public void Trim()
     {
-        Matcher m = noHeadingAndTrailingSpaces.matcher(text);
-        if (!m.find()) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && isSpace(text.charAt(start)))
+            start++;
+        while (end > start && isSpace(text.charAt(end - 1)))
+            end--;
+        if (start == end) {
             text = "";
-            styles = new ArrayList<>();
-            onPagePositions = new ArrayList<>();
-        } else {
-            text = text.substring(m.start(), m.end());
-            styles = styles.subList(m.start(), m.end());
-            onPagePositions = onPagePositions.subList(m.start(), m.end());
+            length = 0;
+            invalidateSummary();
+        } else if (start > 0 || end < text.length()) {
+            text = text.substring(start, end);
+            keepChars(start, end);
         }
-        assert (text.length() == styles.size() && text.length() == onPagePositions.size());
+        assert (text.length() == length);
+    }
+
+    void clear()
+    {
+        text = "";
+        length = 0;
+        invalidateSummary();
+    }
+
+    void appendWordChars(Line word, int from, int to)
+    {
+        if (length > 0) {
+            int last = length - 1;
+            addChar(charStyle[last], charPage[last], charXMax[last], word.charXMin[from], charYMin[last], charYMax[last]);
+        }
+        addChars(word, from, to);
     }
 
     public void AppendWord(Line other)
@@ -50,59 +199,31 @@ public class Line {
             return;
         if (text.isEmpty()) {
             text = other.text;
-            styles = other.styles;
-            onPagePositions = other.onPagePositions;
+            length = 0;
+            addChars(other, 0, other.length);
         } else {
             text += " " + other.text;
-            styles.add(styles.get(styles.size()-1));
-            styles.addAll(other.styles);
-            OnPagePosition pos = new OnPagePosition();
-            pos.page = onPagePositions.get(onPagePositions.size()-1).page;
-            pos.yMin = onPagePositions.get(onPagePositions.size()-1).yMin;
-            pos.yMax = onPagePositions.get(onPagePositions.size()-1).yMax;
-            pos.xMin = onPagePositions.get(onPagePositions.size()-1).xMax;
-            pos.xMax = other.onPagePositions.get(0).xMin;
-            onPagePositions.add(pos);
-            onPagePositions.addAll(other.onPagePositions);
+            int last = length - 1;
+            addChar(charStyle[last], charPage[last], charXMax[last], other.charXMin[0], charYMin[last], charYMax[last]);
+            addChars(other, 0, other.length);
         }
-        assert (text.length() == styles.size() && text.length() == onPagePositions.size());
+        assert (text.length() == length);
     }
 
     public void Append(Line other)
     {
         text += other.text;
-        styles.addAll(other.styles);
-        onPagePositions.addAll(other.onPagePositions);
-    }
-
-    private Line getLastChar() {
-        if (text.isEmpty())
-            return null;
-        Line ch = new Line();
-        ch.text = text.substring(text.length() - 1);
-        ch.styles = styles.subList(styles.size() - 1, styles.size());
-        ch.onPagePositions = onPagePositions.subList(onPagePositions.size() - 1, onPagePositions.size());
-        return ch;
-    }
-
-    private Line getFirstChar() {
-        if (text.isEmpty())
-            return null;
-        Line ch = new Line();
-        ch.text = text.substring(0, 1);
-        ch.styles = styles.subList(0, 1);
-        ch.onPagePositions = onPagePositions.subList(0, 1);
-        return ch;
+        addChars(other, 0, other.length);
     }
 
     public int getFirstPage()
     {
-        return getFirstChar().onPagePositions.get(0).page;
+        return charPage[0];
     }
 
     public int getLastPage()
     {
-        return getLastChar().onPagePositions.get(0).page;
+        return charPage[length - 1];
     }
 
     static private Pattern endsWithHyphen = Pattern.compile("^.*\\w(‐|-|–)$", Pattern.UNICODE_CHARACTER_CLASS);
@@ -116,14 +237,11 @@ public class Line {
     {
         if (EndsWithHyphen()) {
             text = text.substring(0, text.length()-1);
-            styles.remove(styles.size() - 1);
-            onPagePositions.remove(onPagePositions.size() - 1);
-        } else {
-            Line space = getLastChar();
-            if (space != null) {
-                space.text = " ";
-                Append(space);
-            }
+            length--;
+            invalidateSummary();
+        } else if (!text.isEmpty()) {
+            text += " ";
+            addChars(this, length - 1, length);
         }
         Append(other);
     }
@@ -133,68 +251,82 @@ public class Line {
         return text.isEmpty();
     }
 
-    public Style getMedianStyle()
+    int getMedianStyleId()
     {
-        Map<Style, Integer> diagramm = new HashMap<>();
-        for (Style s : styles)
-            diagramm.merge(s, 1, Integer::sum);
-        Style common = null;
-        Integer commonCnt = 0;
-        for (Map.Entry<Style, Integer> styleIntegerEntry : diagramm.entrySet())
-            if (styleIntegerEntry.getValue() >= commonCnt) {
-                commonCnt = styleIntegerEntry.getValue();
-                common = styleIntegerEntry.getKey();
+        if (styleIds == null)
+            computeStyles();
+        return medianStyle;
+    }
+
+    private void computeStyles()
+    {
+        int[] ids = new int[4];
+        int[] counts = new int[4];
+        int distinct = 0;
+        int found = 0;
+        for (int i = 0; i < length; i++) {
+            int style = charStyle[i];
+            if (distinct == 0 || ids[found] != style) {
+                found = 0;
+                while (found < distinct && ids[found] != style)
+                    found++;
+                if (found == distinct) {
+                    if (distinct == ids.length) {
+                        ids = Arrays.copyOf(ids, distinct * 2);
+                        counts = Arrays.copyOf(counts, distinct * 2);
+                    }
+                    ids[distinct++] = style;
+                }
             }
-        return common;
+            counts[found]++;
+        }
+        medianStyle = -1;
+        int commonCnt = 0;
+        styleMask = 0;
+        for (int i = 0; i < distinct; i++) {
+            if (counts[i] > commonCnt) {
+                commonCnt = counts[i];
+                medianStyle = ids[i];
+            }
+            styleMask |= 1L << (ids[i] & 63);
+        }
+        styleIds = Arrays.copyOf(ids, distinct);
+        Arrays.sort(styleIds);
+    }
+
+    public Style getMedianStyle()
+    {
+        int common = getMedianStyleId();
+        return common < 0 ? null : registry.get(common);
     }
 
     public float xMin()
     {
-        assert (!isEmpty());
-        float res = onPagePositions.get(0).xMin;
-        for (OnPagePosition onPagePosition : onPagePositions)
-            if (onPagePosition.xMin < res)
-                res = onPagePosition.xMin;
-        return res;
+        ensureSummary();
+        return summaryXMin;
     }
 
     public float xMax()
     {
-        assert (!isEmpty());
-        float res = onPagePositions.get(0).xMax;
-        for (OnPagePosition onPagePosition : onPagePositions)
-            if (onPagePosition.xMax > res)
-                res = onPagePosition.xMax;
-        return res;
+        ensureSummary();
+        return summaryXMax;
     }
 
     public float yMin()
     {
-        assert (!isEmpty());
-        float res = onPagePositions.get(0).yMin;
-        for (OnPagePosition onPagePosition : onPagePositions)
-            if (onPagePosition.yMin < res)
-                res = onPagePosition.yMin;
-        return res;
+        ensureSummary();
+        return summaryYMin;
     }
 
     public float yMax()
     {
-        assert (!isEmpty());
-        float res = onPagePositions.get(0).yMax;
-        for (OnPagePosition onPagePosition : onPagePositions)
-            if (onPagePosition.yMax > res)
-                res = onPagePosition.yMax;
-        return res;
+        ensureSummary();
+        return summaryYMax;
     }
 
     public float getEps() {
-        float eps = Float.MAX_VALUE;
-        for (OnPagePosition onPagePosition : onPagePositions) {
-            if (onPagePosition.xMax - onPagePosition.xMin < eps)
-                eps = onPagePosition.xMax - onPagePosition.xMin;
-        }
-        return min(eps, Width() / 80f);
+        ensureSummary();
+        return min(minCharWidth, Width() / 80f);
     }
 
     public float Width()
@@ -254,93 +386,214 @@ public class Line {
                     || abs(yMin() - other.yMax()) < 2 * min(Height(), other.Height()));
     }
 
-    interface AlmostEquals {
-        public boolean AlmostEquals(String o1, String o2);
+    public boolean HaveSameStyles(Line other)
+    {
+        getMedianStyleId();
+        other.getMedianStyleId();
+        if ((styleMask & other.styleMask) == 0 || !intersect(styleIds, other.styleIds))
+            return false;
+        if (!getMedianStyle().almostEquals(other.getMedianStyle()))
+            return false;
+        return true;
     }
 
-    interface AlmostEqualsAndComparator extends AlmostEquals, Comparator<String> {}
-
-    static class IntsAlmostEquals implements AlmostEqualsAndComparator {
-        @Override
-        public boolean AlmostEquals(String o1, String o2) {
-            if (abs(Integer.parseInt(o1) - Integer.parseInt(o2)) < 10)
+    private static boolean intersect(int[] a, int[] b)
+    {
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j])
                 return true;
-            return false;
-        }
-        @Override
-        public int compare(String o1, String o2) {
-            Integer o1int = Integer.parseInt(o1);
-            Integer o2int = Integer.parseInt(o2);
-            return o1int < o2int ? -1 : o1int > o2int ? 1 : 0;
+            if (a[i] < b[j])
+                i++;
+            else
+                j++;
         }
+        return false;
     }
 
-    static class RomanNumsAlmostEquals implements AlmostEqualsAndComparator {
-        @Override
-        public boolean AlmostEquals(String o1, String o2) {
-            return StringUtils.getLevenshteinDistance(o1, o2) <= 4;
+    private static final int ROMAN_DISTANCE = 4;
+    private static final int NUMBERS = 1;
+    private static final int UPPER_ROMANS = 2;
+    private static final int LOWER_ROMANS = 3;
+    private static final int WORDS = 4;
+
+    private static final class Tokens {
+        final String[] numbers;
+        final long[] values;
+        final String[] upperRomans;
+        final String[] lowerRomans;
+        final String[] words;
+
+        Tokens(String text)
+        {
+            numbers = runs(text, "1234567890");
+            Arrays.sort(numbers, Tokens::compareNumbers);
+            values = new long[numbers.length];
+            for (int i = 0; i < numbers.length; i++)
+                values[i] = numbers[i].length() - leadingZeros(numbers[i]) <= 18 ? Long.parseLong(numbers[i]) : -1;
+            upperRomans = runs(text, "IVX");
+            Arrays.sort(upperRomans);
+            lowerRomans = runs(text, "ivx");
+            Arrays.sort(lowerRomans);
+            words = Arrays.stream(Line.words.split(text)).filter(s -> !s.isEmpty()).toArray(String[]::new);
+            Arrays.sort(words);
         }
 
-        @Override
-        public int compare(String o1, String o2) {
-            return o1.compareTo(o2);
+        private static String[] runs(String s, String chars)
+        {
+            List<String> runs = new ArrayList<>();
+            int start = -1;
+            for (int i = 0; i <= s.length(); i++) {
+                boolean member = i < s.length() && chars.indexOf(s.charAt(i)) >= 0;
+                if (member && start < 0) {
+                    start = i;
+                } else if (!member && start >= 0) {
+                    runs.add(s.substring(start, i));
+                    start = -1;
+                }
+            }
+            return runs.toArray(new String[0]);
         }
-    }
 
-    static class StringsAreEqual implements AlmostEqualsAndComparator {
-        @Override
-        public boolean AlmostEquals(String o1, String o2) {
-            return o1.equals(o2);
+        private static int leadingZeros(String number)
+        {
+            int zeros = 0;
+            while (zeros < number.length() - 1 && number.charAt(zeros) == '0')
+                zeros++;
+            return zeros;
         }
 
-        @Override
-        public int compare(String o1, String o2) {
-            return o1.compareTo(o2);
+        private static int compareNumbers(String a, String b)
+        {
+            int aZeros = leadingZeros(a);
+            int bZeros = leadingZeros(b);
+            int byLength = Integer.compare(a.length() - aZeros, b.length() - bZeros);
+            return byLength != 0 ? byLength : a.substring(aZeros).compareTo(b.substring(bZeros));
         }
     }
 
-    public boolean HaveSameStyles(Line other)
+    private Tokens tokens()
+    {
+        if (tokens == null)
+            tokens = new Tokens(text);
+        return tokens;
+    }
+
+    public boolean AlmostEquals(Line other)
     {
-        Set<Style> myStyles = new HashSet<>();
-        myStyles.addAll(styles);
-        Set<Style> hisStyles = new HashSet<>();
-        hisStyles.addAll(other.styles);
-        Set<Style> myButNotHisStyles = new HashSet<>(myStyles);
-        myButNotHisStyles.removeAll(hisStyles);
-        if (myStyles.equals(myButNotHisStyles))
+        registry.metrics.almostEquals.increment();
+        if (!HaveSameStyles(other))
             return false;
-        if (!getMedianStyle().almostEquals(other.getMedianStyle()))
+        return subsAlmostEqual(other, WORDS);
+    }
+
+    public boolean AlmostEqualsByFingerprint(Line other)
+    {
+        registry.metrics.almostEquals.increment();
+        if (!Fingerprint().equals(other.Fingerprint()))
+            return false;
+        if (!HaveSameStyles(other))
+            return false;
+        return subsAlmostEqual(other, LOWER_ROMANS);
+    }
+
+    private boolean subsAlmostEqual(Line other, int subsCount)
+    {
+        Tokens a = tokens();
+        Tokens b = other.tokens();
+        if (subsCount >= NUMBERS && !numbersAlmostEqual(a, b))
+            return false;
+        if (subsCount >= UPPER_ROMANS && !romansAlmostEqual(a.upperRomans, b.upperRomans))
+            return false;
+        if (subsCount >= LOWER_ROMANS && !romansAlmostEqual(a.lowerRomans, b.lowerRomans))
+            return false;
+        if (subsCount >= WORDS && !Arrays.equals(a.words, b.words))
             return false;
         return true;
     }
 
-    static List<Pair<String, AlmostEqualsAndComparator>> subs = new ArrayList<>();
-    static {
-        subs.add(new Pair<>("[^1234567890]+", new IntsAlmostEquals()));
-        subs.add(new Pair<>("[^IVX]+", new RomanNumsAlmostEquals()));
-        subs.add(new Pair<>("[^ivx]+", new RomanNumsAlmostEquals()));
-        subs.add(new Pair<>("[\\pN\\pP\\pZxviXVI]+", new StringsAreEqual()));
+    private static boolean numbersAlmostEqual(Tokens a, Tokens b)
+    {
+        if (a.numbers.length != b.numbers.length)
+            return false;
+        for (int i = 0; i < a.numbers.length; i++) {
+            if (a.values[i] >= 0 && b.values[i] >= 0) {
+                if (abs(a.values[i] - b.values[i]) >= 10)
+                    return false;
+            } else if (Tokens.compareNumbers(a.numbers[i], b.numbers[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
     }
-    public boolean AlmostEquals(Line other)
+
+    private boolean romansAlmostEqual(String[] a, String[] b)
     {
-        if (!HaveSameStyles(other))
+        if (a.length != b.length)
             return false;
-        for (Pair<String, AlmostEqualsAndComparator> sub : subs) {
-            String[] aNums = text.split(sub.getKey());
-            String[] bNums = other.text.split(sub.getKey());
-            aNums = Arrays.stream(aNums).filter(s -> !s.isEmpty()).toArray(String[]::new);
-            bNums = Arrays.stream(bNums).filter(s -> !s.isEmpty()).toArray(String[]::new);
-            if (aNums.length != bNums.length)
+        for (int i = 0; i < a.length; i++) {
+            registry.metrics.levenshtein.increment();
+            if (!editDistanceWithin(a[i], b[i], ROMAN_DISTANCE))
                 return false;
-            Arrays.sort(aNums, sub.getValue());
-            Arrays.sort(bNums, sub.getValue());
-            for (int i = 0; i < aNums.length; i++)
-                if (!sub.getValue().AlmostEquals(aNums[i], bNums[i]))
-                    return false;
         }
         return true;
     }
 
+    static boolean editDistanceWithin(CharSequence a, CharSequence b, int k)
+    {
+        int n = a.length();
+        int m = b.length();
+        if (abs(n - m) > k)
+            return false;
+        int[] prev = new int[m + 2];
+        int[] cur = new int[m + 2];
+        for (int j = 0; j <= m + 1; j++)
+            prev[j] = min(j, k + 1);
+        for (int i = 1; i <= n; i++) {
+            int from = max(1, i - k);
+            int to = min(m, i + k);
+            cur[from - 1] = from == 1 ? min(i, k + 1) : k + 1;
+            int rowMin = cur[from - 1];
+            char c = a.charAt(i - 1);
+            for (int j = from; j <= to; j++) {
+                int d = prev[j - 1] + (c == b.charAt(j - 1) ? 0 : 1);
+                d = min(d, min(prev[j], cur[j - 1]) + 1);
+                cur[j] = min(d, k + 1);
+                rowMin = min(rowMin, cur[j]);
+            }
+            cur[to + 1] = k + 1;
+            if (rowMin > k)
+                return false;
+            int[] swap = prev;
+            prev = cur;
+            cur = swap;
+        }
+        return prev[m] <= k;
+    }
+
+    private static final Pattern words = Pattern.compile("[\\pN\\pP\\pZxviXVI]+");
+
+    public String Fingerprint()
+    {
+        if (fingerprint == null)
+            fingerprint = computeFingerprint();
+        return fingerprint;
+    }
+
+    private String computeFingerprint()
+    {
+        Tokens t = tokens();
+        StringBuilder sb = new StringBuilder();
+        sb.append(Float.floatToIntBits(getMedianStyle().size)).append('|')
+          .append(t.numbers.length).append('|')
+          .append(t.upperRomans.length).append('|')
+          .append(t.lowerRomans.length);
+        for (String s : t.words)
+            sb.append('\u0000').append(s);
+        return sb.toString();
+    }
+
     static Pattern formulaChars = Pattern.compile("[\\p{Sm}\\p{N}\\p{P}]", Pattern.UNICODE_CHARACTER_CLASS);
     public boolean looksLikeFormula()
     {
@@ -356,6 +609,6 @@ public class Line {
 
     public boolean PlacedBefore(Line other)
     {
-        return onPagePositions.get(onPagePositions.size()-1).PlacedBefore(other.onPagePositions.get(0));
+        return getPosition(length - 1).PlacedBefore(other.getPosition(0));
     }
 }
@@ -2,6 +2,7 @@ package com.github.igor_anferov.PDFparser;
 
 import com.github.igor_anferov.PDFOutlineExtractor.Header;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.commons.io.output.NullWriter;
 
@@ -9,35 +10,196 @@ import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
 import static java.lang.Math.max;
 
 public class Main {
+    private static volatile JAXBContext context;
+
+    static File xmlFileFor(String pdfPath)
+    {
+        return new File(pdfPath.substring(0, pdfPath.lastIndexOf(".")) + ".xml");
+    }
+
+    static void writeXml(Document doc, File file, boolean jaxb) throws IOException, JAXBException
+    {
+        if (jaxb)
+            marshal(doc, file);
+        else
+            XmlDocumentWriter.write(doc, file);
+    }
+
+    private static void marshal(Document doc, File file) throws JAXBException
+    {
+        if (context == null) {
+            synchronized (Main.class) {
+                if (context == null)
+                    context = JAXBContext.newInstance(Document.class);
+            }
+        }
+        Marshaller marshaller = context.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+        marshaller.marshal(doc, file);
+    }
+
+    private static void writeXml(Document doc, String pdfPath, boolean jaxb) throws IOException
+    {
+        try {
+            writeXml(doc, xmlFileFor(pdfPath), jaxb);
+        } catch (JAXBException exception) {
+            System.err.println(exception);
+        }
+    }
+
     public static void main( String[] args ) throws IOException {
-        if (args.length == 0) {
+        int threads = 0;
+        String batch = null;
+        String summary = null;
+        int prefetch = 0;
+        boolean jaxb = false;
+        String crops = null;
+        int renderThreads = Runtime.getRuntime().availableProcessors();
+        RegionPDFRenderer.RasterMode raster = RegionPDFRenderer.RasterMode.RGB;
+        long pixelBudget = 0;
+        boolean mapped = false;
+        long maxMemory = 0;
+        boolean stream = false;
+        boolean stats = false;
+        boolean glyphIngest = true;
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length)
+                threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--batch") && i + 1 < args.length)
+                batch = args[++i];
+            else if (args[i].equals("--prefetch") && i + 1 < args.length)
+                prefetch = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--summary") && i + 1 < args.length)
+                summary = args[++i];
+            else if (args[i].equals("--jaxb"))
+                jaxb = true;
+            else if (args[i].equals("--crops") && i + 1 < args.length)
+                crops = args[++i];
+            else if (args[i].equals("--render-threads") && i + 1 < args.length)
+                renderThreads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--stats"))
+                stats = true;
+            else if (args[i].equals("--stripper-ingest"))
+                glyphIngest = false;
+            else if (args[i].equals("--stream"))
+                stream = true;
+            else if (args[i].equals("--mmap"))
+                mapped = true;
+            else if (args[i].equals("--max-memory") && i + 1 < args.length)
+                maxMemory = Long.parseLong(args[++i]) << 20;
+            else if (args[i].equals("--raster") && i + 1 < args.length)
+                raster = RegionPDFRenderer.RasterMode.valueOf(args[++i].toUpperCase());
+            else if (args[i].equals("--pixel-budget") && i + 1 < args.length)
+                pixelBudget = Long.parseLong(args[++i]);
+            else
+                positional.add(args[i]);
+        }
+        if (stream && (threads > 1 || jaxb || batch != null)) {
+            System.out.println("--stream cannot be combined with --threads, --jaxb or --batch");
+            return;
+        }
+        MemoryUsageSetting memory = PDFSource.memoryBudget(maxMemory);
+        Metrics.registerMBean();
+        if (batch != null) {
+            if (threads <= 0)
+                threads = Runtime.getRuntime().availableProcessors();
+            if (prefetch <= 0)
+                prefetch = 2 * threads;
+            File input = new File(batch);
+            File summaryFile = summary != null ? new File(summary)
+                    : new File(input.isDirectory() ? input : input.getAbsoluteFile().getParentFile(), "batch-stats.tsv");
+            String password = positional.isEmpty() ? "" : positional.get(0);
+            BatchProcessor processor = new BatchProcessor(threads, prefetch, password, jaxb, mapped, memory);
+            processor.printMetrics = stats;
+            processor.glyphIngest = glyphIngest;
+            processor.run(BatchProcessor.listInputs(input), summaryFile);
+            return;
+        }
+        if (positional.isEmpty()) {
             System.out.println("Please specify path to PDF file (and password if needed)");
+            System.out.println("Options: --threads N    extract page ranges on N threads");
+            System.out.println("         --batch DIR|MANIFEST [--threads N] [--prefetch N] [--summary FILE] [password]");
+            System.out.println("                        process every PDF of a directory or a list of paths");
+            System.out.println("                        on N workers (default: one per core)");
+            System.out.println("         --jaxb         write XML with JAXB instead of the streaming writer");
+            System.out.println("         --stats        print time, allocation and counts per phase after each document");
+            System.out.println("         --stripper-ingest");
+            System.out.println("                        group glyphs into words and lines through PDFTextStripper's");
+            System.out.println("                        string assembly instead of the built-in glyph engine");
+            System.out.println("         --stream       write blocks as soon as their page window is complete;");
+            System.out.println("                        memory stays bounded, but blocks are not nested into sections;");
+            System.out.println("                        cannot be combined with --threads, --jaxb or --batch");
+            System.out.println("         --mmap         memory-map input files instead of reading them through the heap");
+            System.out.println("         --max-memory MB");
+            System.out.println("                        keep at most MB of decoded streams in heap per open document,");
+            System.out.println("                        spilling the rest to temporary files");
+            System.out.println("         --crops DIR [--render-threads N] [--raster rgb|gray|binary] [--pixel-budget N]");
+            System.out.println("                        render formula and table blocks to PNG files in DIR,");
+            System.out.println("                        lowering the resolution of crops larger than N pixels");
             return;
         }
+        args = positional.toArray(new String[0]);
         String password = args.length > 1 ? args[1] : "";
-        PDDocument document = PDDocument.load(new File(args[0]), password);
+        PDFSource source = PDFSource.of(new File(args[0]), password, mapped, memory);
+        PDDocument document = source.open();
         if (!document.getCurrentAccessPermission().canExtractContent()) {
             System.out.println("Have no permissions to extract PDF's content");
             return;
         }
         PDFextractor extractor = new PDFextractor();
-        extractor.writeText(document, new NullWriter());
-        Document doc = extractor.GetDocument();
+        extractor.glyphIngest = glyphIngest;
+        if (!stream) {
+            if (threads > 1)
+                extractor.writeText(document, source, threads);
+            else
+                extractor.writeText(document, new NullWriter());
+        }
+        try (RenderPipeline pipeline = crops == null ? null
+                : cropsPipeline(source, new File(crops), args[0], raster, pixelBudget, renderThreads, extractor.metrics)) {
+            if (stream)
+                streamXml(extractor, document, args[0], pipeline);
+            else
+                writeXml(pipeline == null ? extractor.GetDocument() : extractor.GetDocument(pipeline), args[0], jaxb);
+        }
+        if (stats)
+            Metrics.GLOBAL.print(System.out, args[0]);
+    }
 
-        try {
-            JAXBContext context = JAXBContext.newInstance(Document.class);
-            Marshaller marshaller = context.createMarshaller();
-            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-            marshaller.marshal(doc, new File(args[0].substring(0, args[0].lastIndexOf(".")) + ".xml"));
-        } catch (JAXBException exception) {
-            System.err.println(exception);
+    private static RenderPipeline cropsPipeline(PDFSource source, File cropsDir, String pdfPath,
+                                                RegionPDFRenderer.RasterMode raster, long pixelBudget, int renderThreads,
+                                                Metrics metrics)
+    {
+        cropsDir.mkdirs();
+        String fileName = new File(pdfPath).getName();
+        String baseName = fileName.contains(".") ? fileName.substring(0, fileName.lastIndexOf(".")) : fileName;
+        RenderPipeline pipeline = new RenderPipeline(source, 288,
+                raster, pixelBudget, max(1, renderThreads), max(1, renderThreads / 2), 4 * max(1, renderThreads),
+                crop -> Files.write(new File(cropsDir, baseName + "-" + crop.blockIndex + "-" + crop.page + ".png").toPath(), crop.png));
+        pipeline.metrics = metrics;
+        return pipeline;
+    }
+
+    private static void streamXml(PDFextractor extractor, PDDocument document, String pdfPath, RenderPipeline crops) throws IOException
+    {
+        try (XmlDocumentWriter writer = new XmlDocumentWriter(new FileOutputStream(xmlFileFor(pdfPath)))) {
+            writer.startDocument(document.getDocumentInformation().getTitle());
+            extractor.writeText(document, new PageWindowPipeline(PageWindowPipeline.DEFAULT_CHUNK_PAGES, block -> {
+                writer.writeBlock(block);
+                if (crops != null && RenderPipeline.isRendered(block))
+                    crops.submit(block);
+            }));
+            writer.endDocument();
         }
     }
 }
@@ -0,0 +1,148 @@
+package com.github.igor_anferov.PDFparser;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import static java.lang.Math.min;
+
+class MappedRandomAccessRead implements RandomAccessRead {
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+    private MappedByteBuffer[] chunks;
+    private final long length;
+    private long position = 0;
+
+    MappedRandomAccessRead(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            length = channel.size();
+            chunks = new MappedByteBuffer[(int) ((length + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long offset = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, min(CHUNK_SIZE, length - offset));
+            }
+        }
+    }
+
+    private void checkClosed() throws IOException
+    {
+        if (chunks == null)
+            throw new IOException("MappedRandomAccessRead already closed");
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        checkClosed();
+        if (position >= length)
+            return -1;
+        int value = chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & (CHUNK_SIZE - 1))) & 0xff;
+        position++;
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException
+    {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int offset, int length) throws IOException
+    {
+        checkClosed();
+        if (position >= this.length)
+            return -1;
+        int total = (int) min(length, this.length - position);
+        for (int done = 0; done < total; ) {
+            MappedByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)].duplicate();
+            int start = (int) (position & (CHUNK_SIZE - 1));
+            int count = min(total - done, chunk.capacity() - start);
+            chunk.position(start);
+            chunk.get(b, offset + done, count);
+            done += count;
+            position += count;
+        }
+        return total;
+    }
+
+    @Override
+    public long getPosition() throws IOException
+    {
+        checkClosed();
+        return position;
+    }
+
+    @Override
+    public void seek(long position) throws IOException
+    {
+        checkClosed();
+        if (position < 0)
+            throw new IOException("Invalid position " + position);
+        this.position = min(position, length);
+    }
+
+    @Override
+    public long length() throws IOException
+    {
+        checkClosed();
+        return length;
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return chunks == null;
+    }
+
+    @Override
+    public int peek() throws IOException
+    {
+        int result = read();
+        if (result != -1)
+            rewind(1);
+        return result;
+    }
+
+    @Override
+    public void rewind(int bytes) throws IOException
+    {
+        seek(getPosition() - bytes);
+    }
+
+    @Override
+    public byte[] readFully(int length) throws IOException
+    {
+        byte[] b = new byte[length];
+        if (length > 0 && read(b) < length)
+            throw new EOFException("Premature end of file");
+        return b;
+    }
+
+    @Override
+    public boolean isEOF() throws IOException
+    {
+        checkClosed();
+        return position >= length;
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        checkClosed();
+        return (int) min(length - position, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close()
+    {
+        chunks = null;
+    }
+}
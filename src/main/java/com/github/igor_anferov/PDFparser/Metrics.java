@@ -0,0 +1,248 @@
+package com.github.igor_anferov.PDFparser;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+public class Metrics {
+    static final Metrics GLOBAL = new Metrics(null);
+
+    private static final boolean JFR = classPresent("jdk.jfr.Event");
+    private static final com.sun.management.ThreadMXBean allocations = allocationCounter();
+    private static final ThreadLocal<Stopwatch> current = new ThreadLocal<>();
+
+    private final Metrics parent;
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    final Counter almostEquals;
+    final Counter levenshtein;
+    final Counter renders;
+
+    private static class Timer {
+        final LongAdder calls = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder allocated = new LongAdder();
+    }
+
+    static final class Counter {
+        private final LongAdder adder;
+        private final Counter parent;
+
+        private Counter(LongAdder adder, Counter parent)
+        {
+            this.adder = adder;
+            this.parent = parent;
+        }
+
+        void increment()
+        {
+            adder.increment();
+            if (parent != null)
+                parent.increment();
+        }
+    }
+
+    public interface MetricsMXBean {
+        Map<String, Long> getCounters();
+        Map<String, Long> getCalls();
+        Map<String, Long> getMillis();
+        Map<String, Long> getAllocatedBytes();
+    }
+
+    Metrics()
+    {
+        this(GLOBAL);
+    }
+
+    private Metrics(Metrics parent)
+    {
+        this.parent = parent;
+        almostEquals = new Counter(counter("line.almostEquals"), parent == null ? null : parent.almostEquals);
+        levenshtein = new Counter(counter("levenshtein"), parent == null ? null : parent.levenshtein);
+        renders = new Counter(counter("render.regions"), parent == null ? null : parent.renders);
+    }
+
+    private static boolean classPresent(String name)
+    {
+        try {
+            Class.forName(name, false, Metrics.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter()
+    {
+        try {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean))
+                return null;
+            com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+            if (!counter.isThreadAllocatedMemorySupported())
+                return null;
+            counter.setThreadAllocatedMemoryEnabled(true);
+            return counter;
+        } catch (LinkageError | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static long allocatedBytes()
+    {
+        return allocations == null ? 0 : allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Wraps a task of a parallel stream so that what it allocates on other
+     * threads is added to the stopwatch running on the calling thread.
+     */
+    static <T> IntFunction<T> forked(IntFunction<T> task)
+    {
+        Stopwatch stopwatch = current.get();
+        Thread caller = Thread.currentThread();
+        if (stopwatch == null || allocations == null)
+            return task;
+        return i -> {
+            if (Thread.currentThread() == caller)
+                return task.apply(i);
+            long start = allocatedBytes();
+            try {
+                return task.apply(i);
+            } finally {
+                stopwatch.forked.add(allocatedBytes() - start);
+            }
+        };
+    }
+
+    public static void registerMBean()
+    {
+        try {
+            ObjectName name = new ObjectName("com.github.igor_anferov.PDFparser:type=Metrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+                ManagementFactory.getPlatformMBeanServer().registerMBean(GLOBAL.new MBean(), name);
+        } catch (JMException e) {
+            System.err.println(e);
+        }
+    }
+
+    LongAdder counter(String name)
+    {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    void add(String name, long delta)
+    {
+        counter(name).add(delta);
+        if (parent != null)
+            parent.add(name, delta);
+    }
+
+    private void record(String name, long nanos, long allocated)
+    {
+        Timer timer = timers.computeIfAbsent(name, k -> new Timer());
+        timer.calls.increment();
+        timer.nanos.add(nanos);
+        timer.allocated.add(allocated);
+        if (parent != null)
+            parent.record(name, nanos, allocated);
+    }
+
+    Map<String, Long> nanos()
+    {
+        Map<String, Long> values = new TreeMap<>();
+        timers.forEach((name, timer) -> values.put(name, timer.nanos.sum()));
+        return values;
+    }
+
+    Stopwatch phase(String name)
+    {
+        return new Stopwatch("phase." + name, JFR ? JfrEvents.beginPhase(name) : null);
+    }
+
+    Stopwatch page(int pageNo)
+    {
+        add("pages", 1);
+        return new Stopwatch("ingest.page", JFR ? JfrEvents.beginPage(pageNo) : null);
+    }
+
+    class Stopwatch implements AutoCloseable {
+        private final String name;
+        private final Object event;
+        private final long start = System.nanoTime();
+        private final long startAllocated = allocatedBytes();
+        private final LongAdder forked = new LongAdder();
+        private final Stopwatch previous = current.get();
+
+        private Stopwatch(String name, Object event)
+        {
+            this.name = name;
+            this.event = event;
+            current.set(this);
+        }
+
+        @Override
+        public void close()
+        {
+            current.set(previous);
+            long allocated = allocatedBytes() - startAllocated + forked.sum();
+            if (previous != null)
+                previous.forked.add(forked.sum());
+            record(name, System.nanoTime() - start, allocated);
+            if (event != null)
+                JfrEvents.commit(event, allocated);
+        }
+    }
+
+    public void print(PrintStream out, String title)
+    {
+        out.println(title);
+        for (Map.Entry<String, Timer> timer : timers.entrySet())
+            out.printf("  %-40s %8d calls %10.1f ms %10.1f MB%n", timer.getKey(),
+                       timer.getValue().calls.sum(),
+                       timer.getValue().nanos.sum() / 1e6,
+                       timer.getValue().allocated.sum() / (double) (1 << 20));
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet())
+            out.printf("  %-40s %8d%n", counter.getKey(), counter.getValue().sum());
+    }
+
+    private class MBean implements MetricsMXBean {
+        @Override
+        public Map<String, Long> getCounters()
+        {
+            Map<String, Long> values = new TreeMap<>();
+            counters.forEach((name, counter) -> values.put(name, counter.sum()));
+            return values;
+        }
+
+        @Override
+        public Map<String, Long> getCalls()
+        {
+            Map<String, Long> values = new TreeMap<>();
+            timers.forEach((name, timer) -> values.put(name, timer.calls.sum()));
+            return values;
+        }
+
+        @Override
+        public Map<String, Long> getMillis()
+        {
+            Map<String, Long> values = new TreeMap<>();
+            timers.forEach((name, timer) -> values.put(name, timer.nanos.sum() / 1000000));
+            return values;
+        }
+
+        @Override
+        public Map<String, Long> getAllocatedBytes()
+        {
+            Map<String, Long> values = new TreeMap<>();
+            timers.forEach((name, timer) -> values.put(name, timer.allocated.sum()));
+            return values;
+        }
+    }
+}
@@ -43,13 +43,18 @@ public class OnPagePosition implements Comparable<OnPagePosition> {
     public void ExtendTo(OnPagePosition other)
     {
         assert (page == other.page);
-        if (other.xMin < xMin)
-            xMin = other.xMin;
-        if (other.xMax > xMax)
-            xMax = other.xMax;
-        if (other.yMin < yMin)
-            yMin = other.yMin;
-        if (other.yMax > yMax)
-            yMax = other.yMax;
+        ExtendTo(other.xMin, other.xMax, other.yMin, other.yMax);
+    }
+
+    public void ExtendTo(float xMin, float xMax, float yMin, float yMax)
+    {
+        if (xMin < this.xMin)
+            this.xMin = xMin;
+        if (xMax > this.xMax)
+            this.xMax = xMax;
+        if (yMin < this.yMin)
+            this.yMin = yMin;
+        if (yMax > this.yMax)
+            this.yMax = yMax;
     }
 }
@@ -0,0 +1,52 @@
+package com.github.igor_anferov.PDFparser;
+
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.File;
+import java.io.IOException;
+
+public interface PDFSource {
+    PDDocument open() throws IOException;
+
+    static PDFSource of(File file, String password)
+    {
+        return () -> PDDocument.load(file, password);
+    }
+
+    static PDFSource of(File file, String password, boolean mapped, MemoryUsageSetting memory)
+    {
+        if (!mapped)
+            return () -> PDDocument.load(file, password, memory);
+        return () -> load(new MappedRandomAccessRead(file), password, memory);
+    }
+
+    static PDFSource of(byte[] content, String password, MemoryUsageSetting memory)
+    {
+        return () -> PDDocument.load(content, password, null, null, memory);
+    }
+
+    static MemoryUsageSetting memoryBudget(long maxHeapBytes)
+    {
+        return maxHeapBytes > 0 ? MemoryUsageSetting.setupMixed(maxHeapBytes) : MemoryUsageSetting.setupMainMemoryOnly();
+    }
+
+    static PDDocument load(RandomAccessRead input, String password, MemoryUsageSetting memory) throws IOException
+    {
+        ScratchFile scratch = null;
+        try {
+            scratch = new ScratchFile(memory);
+            PDFParser parser = new PDFParser(input, password, null, null, scratch);
+            parser.parse();
+            return parser.getPDDocument();
+        } catch (IOException e) {
+            IOUtils.closeQuietly(scratch);
+            IOUtils.closeQuietly(input);
+            throw e;
+        }
+    }
+}
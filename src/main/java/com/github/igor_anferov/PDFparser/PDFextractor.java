@@ -1,103 +1,420 @@
 package com.github.igor_anferov.PDFparser;
 
+import org.apache.commons.io.output.NullWriter;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.font.PDFont;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.apache.pdfbox.text.TextPosition;
 
 import java.io.IOException;
 import java.io.Writer;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 public class PDFextractor extends PDFTextStripper {
+    private static final int MIN_PAGES_PER_RANGE = 8;
+    private static final int RANGES_PER_THREAD = 4;
+
     String name;
     private RegionPDFRenderer renderer;
-    private Document document = null;
+    Document document = null;
     private Block block = null;
     private Line line = null;
-    private int pageNum = 1;
+    private PageWindowPipeline stream = null;
+    Metrics metrics = new Metrics();
+
+    private final Map<PDFont, FontStyles> fontStyles = new IdentityHashMap<>();
+    private final StringBuilder wordText = new StringBuilder();
+    private final StringBuilder lineText = new StringBuilder();
+    private Line word = null;
+    boolean glyphIngest = true;
+    private final Map<String, Points> shownGlyphs = new HashMap<>();
+
+    private static final class FontStyles {
+        final String name;
+        float[] sizes = new float[4];
+        int[] ids = new int[4];
+        int count = 0;
+
+        FontStyles(String name)
+        {
+            this.name = name;
+        }
+    }
+
+    private static final class Points {
+        float[] xs = new float[16];
+        float[] ys = new float[16];
+        int count = 0;
+
+        boolean near(float x, float y, float tolerance)
+        {
+            float xFrom = x - tolerance;
+            float xTo = x + tolerance;
+            float yFrom = y - tolerance;
+            float yTo = y + tolerance;
+            for (int i = 0; i < count; i++)
+                if (xs[i] >= xFrom && xs[i] < xTo && ys[i] >= yFrom && ys[i] < yTo)
+                    return true;
+            return false;
+        }
+
+        void add(float x, float y)
+        {
+            if (count == xs.length) {
+                xs = Arrays.copyOf(xs, count * 2);
+                ys = Arrays.copyOf(ys, count * 2);
+            }
+            xs[count] = x;
+            ys[count++] = y;
+        }
+    }
 
     PDFextractor() throws IOException {
         super();
     }
 
+    private void phase(String name, Runnable phase)
+    {
+        Metrics.Stopwatch stopwatch = metrics.phase(name);
+        try {
+            phase.run();
+        } finally {
+            stopwatch.close();
+        }
+    }
+
+    private void FillBlocks()
+    {
+        phase("RemoveHeadersAndFooters", document::RemoveHeadersAndFooters);
+        phase("fillPositions", document::fillPositions);
+        phase("mergeFirstLinesWithRest", document::mergeFirstLinesWithRest);
+        phase("FillBlocksAlignments", document::FillBlocksAlignments);
+        phase("mergeEopBlocks", document::mergeEopBlocks);
+        phase("MergeLinesInsideBlocks", document::MergeLinesInsideBlocks);
+        phase("FillBlocksTypes", document::FillBlocksTypes);
+        phase("FillStylesHist", document::FillStylesHist);
+        phase("findTables", document::findTables);
+        metrics.add("blocks", document.blocks.size());
+    }
+
     public Document GetDocument()
     {
-        document.RemoveHeadersAndFooters();
-        document.fillPositions();
-        document.mergeFirstLinesWithRest();
-        document.FillBlocksAlignments();
-        document.mergeEopBlocks();
-        document.MergeLinesInsideBlocks();
-        document.FillBlocksTypes();
-        document.FillStylesHist();
-        document.findTables();
-        document.fillHierarchy();
+        FillBlocks();
+        phase("fillHierarchy", document::fillHierarchy);
+        return document;
+    }
+
+    public Document GetDocument(RenderPipeline crops) throws IOException
+    {
+        FillBlocks();
+        crops.submitAll(document);
+        phase("fillHierarchy", document::fillHierarchy);
         return document;
     }
 
     @Override
     public void writeText(PDDocument doc, Writer outputStream) throws IOException
     {
+        writeText(doc, outputStream, new RegionPDFRenderer(doc, 288), new StyleRegistry());
+    }
+
+    private void writeText(PDDocument doc, Writer outputStream, RegionPDFRenderer renderer, StyleRegistry styles) throws IOException
+    {
+        this.renderer = renderer;
+        renderer.metrics = metrics;
+        beginDocument(doc.getDocumentInformation().getTitle(), styles);
+        super.writeText(doc, outputStream);
+    }
+
+    void beginDocument(String name, StyleRegistry styles)
+    {
+        this.name = name;
+        styles.metrics = metrics;
+        document = new Document(name, styles);
+        block = null;
+        line = null;
+        fontStyles.clear();
+        lineText.setLength(0);
+        word = new Line(styles);
+    }
+
+    public void writeText(PDDocument doc, PageWindowPipeline stream) throws IOException
+    {
+        this.stream = stream;
+        try {
+            writeText(doc, new NullWriter());
+        } finally {
+            this.stream = null;
+        }
+    }
+
+    public void writeText(PDDocument doc, PDFSource source, int threads) throws IOException
+    {
+        int firstPage = max(getStartPage(), 1);
+        int lastPage = min(getEndPage(), doc.getNumberOfPages());
+        int ranges = min(threads * RANGES_PER_THREAD, (lastPage - firstPage + 1) / MIN_PAGES_PER_RANGE);
+        if (threads <= 1 || ranges <= 1) {
+            writeText(doc, new NullWriter());
+            return;
+        }
+
         renderer = new RegionPDFRenderer(doc, 288);
+        renderer.metrics = metrics;
         name = doc.getDocumentInformation().getTitle();
-        document = new Document(name);
-        super.writeText(doc, outputStream);
+        StyleRegistry styles = new StyleRegistry();
+        styles.metrics = metrics;
+        document = new Document(name, styles);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Document>> parts = new ArrayList<>();
+            int pages = lastPage - firstPage + 1;
+            for (int i = 0; i < ranges; i++) {
+                int startPage = firstPage + (int)((long)pages * i / ranges);
+                int endPage = firstPage + (int)((long)pages * (i + 1) / ranges) - 1;
+                parts.add(pool.submit(() -> extractRange(source, startPage, endPage)));
+            }
+            for (Future<Document> part : parts)
+                document.Append(part.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Document extractRange(PDFSource source, int startPage, int endPage) throws IOException
+    {
+        try (PDDocument part = source.open()) {
+            PDFextractor extractor = new PDFextractor();
+            extractor.metrics = metrics;
+            extractor.glyphIngest = glyphIngest;
+            extractor.setStartPage(startPage);
+            extractor.setEndPage(endPage);
+            extractor.writeText(part, new NullWriter(), renderer, document.styles);
+            return extractor.document;
+        }
     }
 
     @Override
-    protected void writeString(String t, List<TextPosition> textPositions) throws IOException
+    public void processPage(PDPage page) throws IOException
     {
-        StringBuilder text = new StringBuilder();
-
-        List<Style> styles = new ArrayList<>();
-        List<OnPagePosition> onPagePositions = new ArrayList<>();
-
-        for (TextPosition textPosition : textPositions) {
-            Style style = new Style();
-            OnPagePosition onPagePosition = new OnPagePosition();
-            onPagePosition.page = pageNum;
-            onPagePosition.xMin = textPosition.getX();
-            onPagePosition.xMax = textPosition.getX() + textPosition.getWidth();
-            onPagePosition.yMin = textPosition.getY() - textPosition.getHeight();
-            onPagePosition.yMax = textPosition.getY();
-            style.font = textPosition.getFont().getName();
-            style.size = max(textPosition.getFontSize(), textPosition.getFontSizeInPt());
-            String curtext = textPosition.toString();
-            for (int i = 0; i < curtext.length(); ++i) {
-                styles.add(style);
-                onPagePositions.add(onPagePosition);
-            }
-            text.append(curtext);
+        if (getCurrentPageNo() < getStartPage() || getCurrentPageNo() > getEndPage()) {
+            super.processPage(page);
+            return;
         }
+        Metrics.Stopwatch stopwatch = metrics.page(getCurrentPageNo());
+        try {
+            super.processPage(page);
+        } finally {
+            stopwatch.close();
+        }
+    }
 
-        assert (text.length() == styles.size() && text.length() == onPagePositions.size());
+    private int styleOf(PDFont font, float size)
+    {
+        FontStyles styles = fontStyles.get(font);
+        if (styles == null) {
+            styles = new FontStyles(font.getName());
+            fontStyles.put(font, styles);
+        }
+        for (int i = 0; i < styles.count; i++)
+            if (styles.sizes[i] == size)
+                return styles.ids[i];
+        if (styles.count == styles.sizes.length) {
+            styles.sizes = Arrays.copyOf(styles.sizes, styles.count * 2);
+            styles.ids = Arrays.copyOf(styles.ids, styles.count * 2);
+        }
+        int id = document.styles.idOf(styles.name, size);
+        styles.sizes[styles.count] = size;
+        styles.ids[styles.count++] = id;
+        return id;
+    }
 
-        Line currentLine = new Line();
-        currentLine.text = text.toString();
+    // Pages without article beads are grouped here with the same heuristics as
+    // PDFTextStripper.writePage, feeding glyphs straight into the current line.
+    private boolean glyphPage()
+    {
+        return glyphIngest && charactersByArticle.size() == 1 && !getSortByPosition();
+    }
 
-        for (int i = 0; i < currentLine.text.length(); i++) {
-            if (styles.get(i).size == 0) {
-                currentLine.text = currentLine.text.substring(0, i) + currentLine.text.substring(i+1);
-                styles.remove(i);
-                onPagePositions.remove(i);
-                i--;
+    @Override
+    protected void startPage(PDPage page) throws IOException
+    {
+        for (Points points : shownGlyphs.values())
+            points.count = 0;
+    }
+
+    @Override
+    protected void processTextPosition(TextPosition text)
+    {
+        if (!glyphPage()) {
+            super.processTextPosition(text);
+            return;
+        }
+        if (getSuppressDuplicateOverlappingText()) {
+            String character = text.getUnicode();
+            Points shown = shownGlyphs.get(character);
+            if (shown == null) {
+                shown = new Points();
+                shownGlyphs.put(character, shown);
+            }
+            float tolerance = text.getWidth() / character.length() / 3.0f;
+            if (shown.near(text.getX(), text.getY(), tolerance))
+                return;
+            shown.add(text.getX(), text.getY());
+        }
+        List<TextPosition> textList = charactersByArticle.get(0);
+        if (!textList.isEmpty()) {
+            TextPosition previous = textList.get(textList.size() - 1);
+            if (text.isDiacritic() && previous.contains(text)) {
+                previous.mergeDiacritic(text);
+                return;
             }
+            if (previous.isDiacritic() && text.contains(previous)) {
+                text.mergeDiacritic(previous);
+                textList.remove(textList.size() - 1);
+            }
+        }
+        textList.add(text);
+    }
+
+    private static boolean within(float first, float second, float variance)
+    {
+        return second < first + variance && second > first - variance;
+    }
+
+    private static boolean overlap(float y1, float height1, float y2, float height2)
+    {
+        return within(y1, y2, .1f) || y2 <= y1 && y2 >= y1 - height1
+                || y1 <= y2 && y1 >= y2 - height2;
+    }
+
+    @Override
+    protected void writePage() throws IOException
+    {
+        if (!glyphPage()) {
+            super.writePage();
+            return;
         }
+        int page = getCurrentPageNo();
+        float maxYForLine = -Float.MAX_VALUE;
+        float maxHeightForLine = -1;
+        float endOfLastTextX = -1;
+        float lastWordSpacing = -1;
+        float previousAveCharWidth = -1;
+        TextPosition last = null;
 
-        currentLine.styles = styles;
-        currentLine.onPagePositions = onPagePositions;
+        for (TextPosition position : charactersByArticle.get(0)) {
+            if (last != null && (position.getFont() != last.getFont() || position.getFontSize() != last.getFontSize()))
+                previousAveCharWidth = -1;
+            float positionX = position.getX();
+            float positionY = position.getY();
+            float positionWidth = position.getWidth();
+            float positionHeight = position.getHeight();
+            int wordCharCount = position.getIndividualWidths().length;
 
-        currentLine.Trim();
+            float wordSpacing = position.getWidthOfSpace();
+            float deltaSpace;
+            if (wordSpacing == 0 || Float.isNaN(wordSpacing))
+                deltaSpace = Float.MAX_VALUE;
+            else if (lastWordSpacing < 0)
+                deltaSpace = wordSpacing * getSpacingTolerance();
+            else
+                deltaSpace = (wordSpacing + lastWordSpacing) / 2f * getSpacingTolerance();
 
-        if (currentLine.isEmpty())
+            float averageCharWidth;
+            if (previousAveCharWidth < 0)
+                averageCharWidth = positionWidth / wordCharCount;
+            else
+                averageCharWidth = (previousAveCharWidth + positionWidth / wordCharCount) / 2f;
+            float deltaCharWidth = averageCharWidth * getAverageCharTolerance();
+
+            boolean newWord = false;
+            if (last != null) {
+                if (!overlap(positionY, positionHeight, maxYForLine, maxHeightForLine)) {
+                    endWord();
+                    writeLineSeparator();
+                    maxYForLine = -Float.MAX_VALUE;
+                    maxHeightForLine = -1;
+                } else if (endOfLastTextX != -1) {
+                    float expectedStartOfNextWordX = endOfLastTextX + min(deltaSpace, deltaCharWidth);
+                    newWord = expectedStartOfNextWordX < positionX
+                            && last.getUnicode() != null && !last.getUnicode().endsWith(" ");
+                }
+            }
+            if (newWord)
+                endWord();
+            if (positionY >= maxYForLine)
+                maxYForLine = positionY;
+            endOfLastTextX = positionX + positionWidth;
+            if (position.getUnicode() != null)
+                addGlyph(position, page);
+            maxHeightForLine = max(maxHeightForLine, positionHeight);
+            last = position;
+            lastWordSpacing = wordSpacing;
+            previousAveCharWidth = averageCharWidth;
+        }
+        endWord();
+        writePageEnd();
+    }
+
+    @Override
+    protected void writeString(String t, List<TextPosition> textPositions) throws IOException
+    {
+        int page = getCurrentPageNo();
+        for (TextPosition textPosition : textPositions)
+            addGlyph(textPosition, page);
+        endWord();
+    }
+
+    private void addGlyph(TextPosition textPosition, int page)
+    {
+        float size = max(textPosition.getFontSize(), textPosition.getFontSizeInPt());
+        if (size == 0)
             return;
+        int style = styleOf(textPosition.getFont(), size);
+        float xMin = textPosition.getX();
+        float xMax = textPosition.getX() + textPosition.getWidth();
+        float yMin = textPosition.getY() - textPosition.getHeight();
+        float yMax = textPosition.getY();
+        String curtext = textPosition.getUnicode();
+        for (int i = 0; i < curtext.length(); ++i)
+            word.addChar(style, page, xMin, xMax, yMin, yMax);
+        wordText.append(curtext);
+    }
 
-        if (line == null)
-            line = currentLine;
-        else
-            line.AppendWord(currentLine);
+    private void endWord()
+    {
+        int start = 0;
+        int end = wordText.length();
+        while (start < end && Line.isSpace(wordText.charAt(start)))
+            start++;
+        while (end > start && Line.isSpace(wordText.charAt(end - 1)))
+            end--;
+        if (start < end) {
+            if (line == null)
+                line = new Line(document.styles);
+            else
+                lineText.append(' ');
+            line.appendWordChars(word, start, end);
+            lineText.append(wordText, start, end);
+        }
+        word.clear();
+        wordText.setLength(0);
     }
 
 //    @Override
@@ -115,9 +432,12 @@ public class PDFextractor extends PDFTextStripper {
     {
         if (line == null)
             return;
+        line.text = lineText.toString();
+        lineText.setLength(0);
         line.Trim();
         if (line.isEmpty())
             return;
+        metrics.add("lines", 1);
         if (block == null) {
             block = new Block(renderer);
             block.Append(line);
@@ -148,12 +468,15 @@ public class PDFextractor extends PDFTextStripper {
         document.eopBlocks.add(document.blocks.size());
         document.Append(block);
         block = null;
-        pageNum++;
+        if (stream != null)
+            stream.pageEnded(document);
     }
 
     @Override
     protected void endDocument(PDDocument document) throws IOException {
         if (line != null || block != null)
             writePageEnd();
+        if (stream != null)
+            stream.finish(this.document);
     }
 }
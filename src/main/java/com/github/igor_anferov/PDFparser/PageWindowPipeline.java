@@ -0,0 +1,120 @@
+package com.github.igor_anferov.PDFparser;
+
+import javafx.util.Pair;
+
+import java.io.IOException;
+import java.util.*;
+
+public class PageWindowPipeline {
+    public interface Sink {
+        void accept(Block block) throws IOException;
+    }
+
+    static final int DEFAULT_CHUNK_PAGES = 16;
+    private static final int HEADER_FOOTER_PAGES = 10;
+
+    private final int chunkPages;
+    private final Sink sink;
+    private final Metrics metrics = new Metrics();
+    private final Set<Line> marked = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<Pair<String, String>, Block.BlockType> numbering = new HashMap<>();
+    private final Document firstLines = new Document(null, null);
+    private final Document alignments = new Document(null, null);
+    private final Document eopBlocks = new Document(null, null);
+    private final Document tables = new Document(null, null);
+    private final Document.Scan firstLinesScan = firstLines.firstLinesScan();
+    private final Document.Scan alignmentsScan = alignments.alignmentsScan();
+    private final Document.Scan eopBlocksScan = eopBlocks.eopBlocksScan();
+    private final Document.Scan tablesScan = tables.tablesScan();
+    private boolean firstChunk = true;
+    private float xMin = Float.MAX_VALUE, xMax = Float.MIN_VALUE, yMin = Float.MAX_VALUE, yMax = Float.MIN_VALUE;
+
+    PageWindowPipeline(int chunkPages, Sink sink)
+    {
+        this.chunkPages = chunkPages;
+        this.sink = sink;
+    }
+
+    void pageEnded(Document raw) throws IOException
+    {
+        // the header of the page after the tenth next page is compared too
+        while (raw.pages() > chunkPages + HEADER_FOOTER_PAGES)
+            process(raw, chunkPages, false);
+    }
+
+    void finish(Document raw) throws IOException
+    {
+        process(raw, raw.pages(), true);
+    }
+
+    private void includePositions(Document chunk)
+    {
+        chunk.xMin = xMin;
+        chunk.xMax = xMax;
+        chunk.yMin = yMin;
+        chunk.yMax = yMax;
+        chunk.includePositions(0);
+        xMin = chunk.xMin;
+        xMax = chunk.xMax;
+        yMin = chunk.yMin;
+        yMax = chunk.yMax;
+    }
+
+    private void extentsTo(Document stage)
+    {
+        stage.xMin = xMin;
+        stage.xMax = xMax;
+        stage.yMin = yMin;
+        stage.yMax = yMax;
+    }
+
+    private void process(Document raw, int pages, boolean last) throws IOException
+    {
+        Document chunk;
+        Metrics.Stopwatch stopwatch = metrics.phase("RemoveHeadersAndFooters");
+        try {
+            marked.addAll(raw.markHeadersAndFooters(firstChunk ? 0 : 1, pages + 1));
+            chunk = raw.takePages(pages);
+            chunk.removeLines(marked);
+        } finally {
+            stopwatch.close();
+        }
+        firstChunk = false;
+        includePositions(chunk);
+
+        firstLines.blocks.addAll(chunk.blocks);
+        alignments.blocks.addAll(advance("mergeFirstLinesWithRest", firstLinesScan, last));
+        eopBlocks.blocks.addAll(advance("FillBlocksAlignments", alignmentsScan, last));
+        extentsTo(eopBlocks);
+        Document typed = new Document(null, null);
+        typed.blocks.addAll(advance("mergeEopBlocks", eopBlocksScan, last));
+        phase("MergeLinesInsideBlocks", typed::MergeLinesInsideBlocks);
+        phase("FillBlocksTypes", () -> typed.FillBlocksTypes(numbering));
+        tables.blocks.addAll(typed.blocks);
+        extentsTo(tables);
+        List<Block> done = advance("findTables", tablesScan, last);
+        metrics.add("blocks", done.size());
+        for (Block block : done)
+            sink.accept(block);
+    }
+
+    private List<Block> advance(String name, Document.Scan scan, boolean last)
+    {
+        Metrics.Stopwatch stopwatch = metrics.phase(name);
+        try {
+            return scan.take(scan.advance(last));
+        } finally {
+            stopwatch.close();
+        }
+    }
+
+    private void phase(String name, Runnable phase)
+    {
+        Metrics.Stopwatch stopwatch = metrics.phase(name);
+        try {
+            phase.run();
+        } finally {
+            stopwatch.close();
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package com.github.igor_anferov.PDFparser;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.rendering.PageDrawer;
+import org.apache.pdfbox.rendering.PageDrawerParameters;
 
 import java.awt.*;
 import java.awt.geom.AffineTransform;
@@ -9,40 +12,149 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.lang.Math.round;
 
 public class RegionPDFRenderer {
 
-    private static final int POINTS_IN_INCH = 72;
+    enum RasterMode {
+        RGB(BufferedImage.TYPE_INT_RGB, 32),
+        GRAY(BufferedImage.TYPE_BYTE_GRAY, 8),
+        BINARY(BufferedImage.TYPE_BYTE_BINARY, 1);
+
+        final int imageType;
+        final int bitsPerPixel;
+
+        RasterMode(int imageType, int bitsPerPixel) {
+            this.imageType = imageType;
+            this.bitsPerPixel = bitsPerPixel;
+        }
+    }
+
+    private static final float POINTS_IN_INCH = 72;
+    static final long DEFAULT_CACHE_BYTES = 256L << 20;
 
     private final PDDocument document;
     private final PDFRenderer renderer;
     private final int resolutionDotPerInch;
+    private final long cacheBytes;
+    private final RasterMode mode;
+    private final long pixelBudget;
+    private final Map<Integer, BufferedImage> pages = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes = 0;
+    private Rectangle2D region;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    Metrics metrics = Metrics.GLOBAL;
 
     RegionPDFRenderer(PDDocument document, int resolutionDotPerInch) {
+        this(document, resolutionDotPerInch, DEFAULT_CACHE_BYTES);
+    }
+
+    RegionPDFRenderer(PDDocument document, int resolutionDotPerInch, long cacheBytes) {
+        this(document, resolutionDotPerInch, cacheBytes, RasterMode.RGB, 0);
+    }
+
+    RegionPDFRenderer(PDDocument document, int resolutionDotPerInch, long cacheBytes, RasterMode mode, long pixelBudget) {
         this.document = document;
-        this.renderer = new PDFRenderer(document);
+        this.renderer = new PDFRenderer(document) {
+            @Override
+            protected PageDrawer createPageDrawer(PageDrawerParameters parameters) throws IOException {
+                return new RegionPageDrawer(parameters, region);
+            }
+        };
         this.resolutionDotPerInch = resolutionDotPerInch;
+        this.cacheBytes = cacheBytes;
+        this.mode = mode;
+        this.pixelBudget = pixelBudget;
+    }
+
+    private float scaleFor(Rectangle2D.Float rect) {
+        float scale = resolutionDotPerInch / POINTS_IN_INCH;
+        double pixels = (double) rect.width * rect.height * scale * scale;
+        if (pixelBudget > 0 && pixels > pixelBudget)
+            scale *= (float) Math.sqrt(pixelBudget / pixels);
+        return scale;
     }
 
     RenderedImage renderRect(int pageIndex, Rectangle2D.Float rect) throws IOException {
-        BufferedImage image = createImage(rect);
-        Graphics2D graphics = createGraphics(image, rect);
-        renderer.renderPageToGraphics(pageIndex, graphics);
+        metrics.renders.increment();
+        float scale = scaleFor(rect);
+        if (cacheBytes <= 0 || scale != resolutionDotPerInch / POINTS_IN_INCH)
+            return renderClipped(pageIndex, rect, scale);
+        BufferedImage page = getPage(pageIndex);
+        BufferedImage image = createImage(rect, scale);
+        Graphics2D graphics = image.createGraphics();
+        graphics.drawImage(page, -round(rect.x * scale), -round(rect.y * scale), null);
         graphics.dispose();
         return image;
     }
 
-    private BufferedImage createImage(Rectangle2D.Float rect) {
-        float scale = resolutionDotPerInch / POINTS_IN_INCH;
+    private synchronized BufferedImage renderClipped(int pageIndex, Rectangle2D.Float rect, float scale) throws IOException {
+        BufferedImage image = createImage(rect, scale);
+        Graphics2D graphics = createGraphics(image, rect, scale);
+        region = new Rectangle(image.getWidth(), image.getHeight());
+        try {
+            renderer.renderPageToGraphics(pageIndex, graphics);
+        } finally {
+            region = null;
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    public long getCacheHits() {
+        return hits.get();
+    }
+
+    public long getCacheMisses() {
+        return misses.get();
+    }
+
+    private long sizeOf(BufferedImage image) {
+        return ((long) image.getWidth() * mode.bitsPerPixel + 7) / 8 * image.getHeight();
+    }
+
+    private synchronized BufferedImage getPage(int pageIndex) throws IOException {
+        BufferedImage page = pages.get(pageIndex);
+        if (page != null) {
+            hits.incrementAndGet();
+            return page;
+        }
+        misses.incrementAndGet();
+        page = renderPage(pageIndex);
+        long size = sizeOf(page);
+        if (size > cacheBytes)
+            return page;
+        for (Iterator<BufferedImage> it = pages.values().iterator(); cachedBytes + size > cacheBytes && it.hasNext(); ) {
+            cachedBytes -= sizeOf(it.next());
+            it.remove();
+        }
+        pages.put(pageIndex, page);
+        cachedBytes += size;
+        return page;
+    }
+
+    private BufferedImage renderPage(int pageIndex) throws IOException {
+        PDPage pdPage = document.getPage(pageIndex);
+        boolean rotated = pdPage.getRotation() == 90 || pdPage.getRotation() == 270;
+        float width = pdPage.getCropBox().getWidth();
+        float height = pdPage.getCropBox().getHeight();
+        Rectangle2D.Float rect = new Rectangle2D.Float(0, 0, rotated ? height : width, rotated ? width : height);
+        return renderClipped(pageIndex, rect, resolutionDotPerInch / POINTS_IN_INCH);
+    }
+
+    private BufferedImage createImage(Rectangle2D.Float rect, float scale) {
         int bitmapWidth  = round(rect.width  * scale);
         int bitmapHeight = round(rect.height * scale);
-        return new BufferedImage(bitmapWidth, bitmapHeight, BufferedImage.TYPE_INT_RGB);
+        return new BufferedImage(bitmapWidth, bitmapHeight, mode.imageType);
     }
 
-    private Graphics2D createGraphics(BufferedImage image, Rectangle2D.Float rect) {
-        double scale = resolutionDotPerInch / POINTS_IN_INCH;
+    private Graphics2D createGraphics(BufferedImage image, Rectangle2D.Float rect, float scale) {
         AffineTransform transform = AffineTransform.getScaleInstance(scale, scale);
         transform.concatenate(AffineTransform.getTranslateInstance(-rect.x, -rect.y));
 
@@ -0,0 +1,95 @@
+package com.github.igor_anferov.PDFparser;
+
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImage;
+import org.apache.pdfbox.pdmodel.graphics.state.PDGraphicsState;
+import org.apache.pdfbox.rendering.PageDrawer;
+import org.apache.pdfbox.rendering.PageDrawerParameters;
+import org.apache.pdfbox.util.Matrix;
+import org.apache.pdfbox.util.Vector;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+
+class RegionPageDrawer extends PageDrawer {
+
+    private final Rectangle2D region;
+    private Graphics2D pageGraphics;
+
+    RegionPageDrawer(PageDrawerParameters parameters, Rectangle2D region) throws IOException {
+        super(parameters);
+        this.region = region;
+    }
+
+    @Override
+    public void drawPage(Graphics g, PDRectangle pageSize) throws IOException {
+        pageGraphics = (Graphics2D) g;
+        super.drawPage(g, pageSize);
+        pageGraphics = null;
+    }
+
+    private boolean outside(Shape shape, double padding) {
+        if (region == null || getGraphics() != pageGraphics)
+            return false;
+        Rectangle2D bounds = getGraphics().getTransform().createTransformedShape(shape).getBounds2D();
+        return bounds.getMaxX() + padding < region.getMinX()
+                || bounds.getMinX() - padding > region.getMaxX()
+                || bounds.getMaxY() + padding < region.getMinY()
+                || bounds.getMinY() - padding > region.getMaxY();
+    }
+
+    private double strokePadding() {
+        PDGraphicsState state = getGraphicsState();
+        AffineTransform transform = getGraphics().getTransform();
+        double scale = max(abs(transform.getScaleX()) + abs(transform.getShearX()),
+                           abs(transform.getScaleY()) + abs(transform.getShearY()));
+        // PageDrawer strokes with the CTM-scaled width and at least 0.25
+        double lineWidth = max(0.25, transformWidth(state.getLineWidth()));
+        return lineWidth * scale * max(1, state.getMiterLimit()) + 1;
+    }
+
+    @Override
+    protected void showFontGlyph(Matrix textRenderingMatrix, PDFont font, int code, String unicode,
+                                 Vector displacement) throws IOException {
+        PDRectangle bbox = font.getBoundingBox() == null ? null : new PDRectangle(font.getBoundingBox());
+        if (bbox != null && bbox.getWidth() > 0 && bbox.getHeight() > 0
+                && !getGraphicsState().getTextState().getRenderingMode().isClip()) {
+            Rectangle2D glyph = bbox.transform(font.getFontMatrix()).getBounds2D();
+            double padding = max(1, max(glyph.getWidth(), glyph.getHeight()));
+            glyph.setRect(glyph.getX() - padding, glyph.getY() - padding,
+                          glyph.getWidth() + 2 * padding, glyph.getHeight() + 2 * padding);
+            if (outside(textRenderingMatrix.createAffineTransform().createTransformedShape(glyph), strokePadding()))
+                return;
+        }
+        super.showFontGlyph(textRenderingMatrix, font, code, unicode, displacement);
+    }
+
+    @Override
+    public void strokePath() throws IOException {
+        if (outside(getLinePath(), strokePadding()))
+            getLinePath().reset();
+        else
+            super.strokePath();
+    }
+
+    @Override
+    public void fillPath(int windingRule) throws IOException {
+        if (outside(getLinePath(), 1))
+            getLinePath().reset();
+        else
+            super.fillPath(windingRule);
+    }
+
+    @Override
+    public void drawImage(PDImage pdImage) throws IOException {
+        Matrix ctm = getGraphicsState().getCurrentTransformationMatrix();
+        if (!outside(new PDRectangle(0, 0, 1, 1).transform(ctm), 1))
+            super.drawImage(pdImage);
+    }
+}
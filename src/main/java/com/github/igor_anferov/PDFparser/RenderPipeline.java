@@ -0,0 +1,168 @@
+package com.github.igor_anferov.PDFparser;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.RenderedImage;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+public class RenderPipeline implements Closeable {
+    public static class Crop {
+        public final Block block;
+        public final int blockIndex;
+        public final int page;
+        public final byte[] png;
+
+        Crop(Block block, int blockIndex, int page, byte[] png)
+        {
+            this.block = block;
+            this.blockIndex = blockIndex;
+            this.page = page;
+            this.png = png;
+        }
+    }
+
+    public interface Sink {
+        void accept(Crop crop) throws IOException;
+    }
+
+    private static final CompletableFuture<Crop> END = CompletableFuture.completedFuture(null);
+
+    private final ExecutorService renderPool;
+    private final ExecutorService encodePool;
+    private final List<PDDocument> documents = Collections.synchronizedList(new ArrayList<>());
+    private final ThreadLocal<RegionPDFRenderer> renderers;
+    private final BlockingQueue<CompletableFuture<Crop>> pending;
+    private final Thread writer;
+    private volatile Throwable failure;
+    private int submitted = 0;
+    Metrics metrics = Metrics.GLOBAL;
+
+    RenderPipeline(PDFSource source, int resolutionDotPerInch, int renderThreads, int encodeThreads,
+                   int capacity, Sink sink)
+    {
+        this(source, resolutionDotPerInch, RegionPDFRenderer.RasterMode.RGB, 0,
+             renderThreads, encodeThreads, capacity, sink);
+    }
+
+    RenderPipeline(PDFSource source, int resolutionDotPerInch, RegionPDFRenderer.RasterMode mode, long pixelBudget,
+                   int renderThreads, int encodeThreads, int capacity, Sink sink)
+    {
+        renderPool = Executors.newFixedThreadPool(renderThreads);
+        encodePool = Executors.newFixedThreadPool(encodeThreads);
+        renderers = ThreadLocal.withInitial(() -> {
+            try {
+                PDDocument document = source.open();
+                documents.add(document);
+                RegionPDFRenderer renderer = new RegionPDFRenderer(document, resolutionDotPerInch, 0, mode, pixelBudget);
+                renderer.metrics = metrics;
+                return renderer;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        pending = new ArrayBlockingQueue<>(capacity);
+        writer = new Thread(() -> drain(sink), "render-pipeline-sink");
+        writer.start();
+    }
+
+    private void drain(Sink sink)
+    {
+        try {
+            for (CompletableFuture<Crop> crop = pending.take(); crop != END; crop = pending.take()) {
+                try {
+                    Crop result = crop.join();
+                    if (failure == null)
+                        sink.accept(result);
+                } catch (CompletionException e) {
+                    fail(e.getCause());
+                } catch (IOException | RuntimeException e) {
+                    fail(e);
+                }
+            }
+        } catch (InterruptedException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Throwable e)
+    {
+        if (e instanceof UncheckedIOException)
+            e = e.getCause();
+        if (failure == null)
+            failure = e;
+    }
+
+    private byte[] encode(RenderedImage image)
+    {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "png", png);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return png.toByteArray();
+    }
+
+    public void submit(Block block) throws IOException
+    {
+        int blockIndex = submitted++;
+        for (Map.Entry<Integer, Rectangle.Float> region : block.GetRenderRegions().entrySet()) {
+            int page = region.getKey();
+            CompletableFuture<Crop> crop = CompletableFuture
+                    .supplyAsync(() -> {
+                        try {
+                            return renderers.get().renderRect(page - 1, region.getValue());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, renderPool)
+                    .thenApplyAsync(image -> new Crop(block, blockIndex, page, encode(image)), encodePool);
+            try {
+                pending.put(crop);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    public void submitAll(Document document) throws IOException
+    {
+        for (Block block : document.blocks)
+            if (isRendered(block))
+                submit(block);
+    }
+
+    static boolean isRendered(Block block)
+    {
+        return block.type.type == Block.Type.Formula || block.type.type == Block.Type.Table;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            pending.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            renderPool.shutdown();
+            encodePool.shutdown();
+        }
+        for (PDDocument document : documents)
+            document.close();
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        if (failure != null)
+            throw new IOException(failure);
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.igor_anferov.PDFparser;
+
+import java.util.Arrays;
+
+import static java.lang.Math.max;
+
+class SlidingMedian {
+    private float[] sorted;
+    private int size = 0;
+
+    SlidingMedian(int capacity)
+    {
+        sorted = new float[max(capacity, 1)];
+    }
+
+    private int find(float value)
+    {
+        int idx = Arrays.binarySearch(sorted, 0, size, value);
+        return idx >= 0 ? idx : -idx - 1;
+    }
+
+    void add(float value)
+    {
+        if (size == sorted.length)
+            sorted = Arrays.copyOf(sorted, size * 2);
+        int idx = find(value);
+        System.arraycopy(sorted, idx, sorted, idx + 1, size - idx);
+        sorted[idx] = value;
+        size++;
+    }
+
+    void remove(float value)
+    {
+        int idx = find(value);
+        assert (idx < size && Float.compare(sorted[idx], value) == 0);
+        System.arraycopy(sorted, idx + 1, sorted, idx, size - idx - 1);
+        size--;
+    }
+
+    /**
+     * The upper median for even sizes: element size / 2 of the sorted
+     * values, the same index the old quickselect picked.
+     */
+    float median()
+    {
+        return size == 0 ? Float.NaN : sorted[size / 2];
+    }
+}
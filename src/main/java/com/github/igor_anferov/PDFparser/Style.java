@@ -1,12 +1,6 @@
 package com.github.igor_anferov.PDFparser;
 
-import static java.lang.Math.max;
-import static java.lang.Math.min;
-import static java.util.Objects.hash;
-
-import org.apache.commons.lang3.StringUtils;
-
-public class Style implements Comparable {
+public final class Style implements Comparable<Style> {
     enum AlignType {
         Unknown,
         Multiple,
@@ -16,53 +10,74 @@ public class Style implements Comparable {
         Center,
     }
 
-    String font;
-    float size;
-    AlignType align = AlignType.Unknown;
+    private final StyleRegistry registry;
+    final int id;
+    final int baseId;
+    final int fontId;
+    final String font;
+    final float size;
+    final AlignType align;
+    private final int sortKey;
+
+    Style(StyleRegistry registry, int id, int baseId, int fontId, String font, float size, AlignType align)
+    {
+        this.registry = registry;
+        this.id = id;
+        this.baseId = baseId;
+        this.fontId = fontId;
+        this.font = font;
+        this.size = size;
+        this.align = align;
+        String lowerFont = font.toLowerCase();
+        boolean bold = lowerFont.contains("bold");
+        boolean italic = lowerFont.contains("italic");
+        sortKey = (bold ? 1 : 0) << 4 | align.ordinal() << 1 | (italic ? 1 : 0);
+    }
 
     @Override
     public int hashCode() {
-        return font.hashCode() ^ hash(size) ^ align.hashCode();
+        return id;
     }
 
     @Override
     public boolean equals(Object obj) {
-        Style other = (Style) obj;
-        return font.equals(other.font) && size == other.size && align.equals(other.align);
+        return this == obj || obj instanceof Style && registry == ((Style) obj).registry && id == ((Style) obj).id;
+    }
+
+    public Style withAlign(AlignType align) {
+        return align == this.align ? this : registry.intern(font, size, align);
     }
 
     public boolean equalsIgnoringAlign(Object obj) {
         Style other = (Style) obj;
-        return font.equals(other.font) && size == other.size;
+        return baseId == other.baseId;
     }
 
     public boolean almostEquals(Style other)
     {
         if (size != other.size)
             return false;
-        int diff = StringUtils.getLevenshteinDistance(font, other.font);
-        int maxLen = max(font.length(), other.font.length());
-        return diff < maxLen / 3;
+        return registry.fontsAlmostEqual(this, other);
+    }
+
+    public int compareToIgnoringAlign(Style o) {
+        return compare(sortKey & ~0xE, o.sortKey & ~0xE, o);
     }
 
     @Override
-    public int compareTo(Object o) {
-        if (size > ((Style)o).size)
-            return -1;
-        if (size < ((Style)o).size)
-            return 1;
-        if (font.toLowerCase().contains("bold") && !((Style)o).font.toLowerCase().contains("bold"))
-            return -1;
-        if (!font.toLowerCase().contains("bold") && ((Style)o).font.toLowerCase().contains("bold"))
-            return 1;
-        if (align.ordinal() > ((Style)o).align.ordinal())
+    public int compareTo(Style o) {
+        return compare(sortKey, o.sortKey, o);
+    }
+
+    private int compare(int key, int otherKey, Style o) {
+        if (size > o.size)
             return -1;
-        if (align.ordinal() < ((Style)o).align.ordinal())
+        if (size < o.size)
             return 1;
-        if (font.toLowerCase().contains("italic") && !((Style)o).font.toLowerCase().contains("italic"))
+        if (key > otherKey)
             return -1;
-        if (!font.toLowerCase().contains("italic") && ((Style)o).font.toLowerCase().contains("italic"))
+        if (key < otherKey)
             return 1;
-        return -1 * font.compareTo(((Style)o).font);
+        return -1 * font.compareTo(o.font);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,100 @@
+package com.github.igor_anferov.PDFparser;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.lang.Math.max;
+
+final class StyleRegistry {
+    private static final class Key {
+        final String font;
+        final float size;
+        final Style.AlignType align;
+
+        Key(String font, float size, Style.AlignType align)
+        {
+            this.font = font;
+            this.size = size;
+            this.align = align;
+        }
+
+        @Override
+        public int hashCode() {
+            return font.hashCode() * 31 * 31 + Float.hashCode(size) * 31 + align.ordinal();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            Key other = (Key) obj;
+            return font.equals(other.font) && size == other.size && align == other.align;
+        }
+    }
+
+    private final Map<Key, Style> styles = new ConcurrentHashMap<>();
+    private final Map<String, Integer> fontIds = new ConcurrentHashMap<>();
+    private final Map<Long, Boolean> fontsAlmostEqual = new ConcurrentHashMap<>();
+    private volatile Style[] byId = new Style[16];
+    private int count = 0;
+    Metrics metrics = Metrics.GLOBAL;
+
+    int idOf(String font, float size)
+    {
+        return intern(font, size, Style.AlignType.Unknown).id;
+    }
+
+    Style get(int id)
+    {
+        return byId[id];
+    }
+
+    int size()
+    {
+        return count;
+    }
+
+    Style intern(String font, float size, Style.AlignType align)
+    {
+        Key key = new Key(Objects.requireNonNull(font), size, align);
+        Style style = styles.get(key);
+        if (style != null)
+            return style;
+        synchronized (this) {
+            style = styles.get(key);
+            if (style != null)
+                return style;
+            Style base = align == Style.AlignType.Unknown ? null : intern(font, size, Style.AlignType.Unknown);
+            Integer fontId = fontIds.get(font);
+            if (fontId == null) {
+                fontId = fontIds.size();
+                fontIds.put(font, fontId);
+            }
+            style = new Style(this, count, base == null ? count : base.id, fontId, font, size, align);
+            Style[] ids = byId;
+            if (count == ids.length)
+                ids = Arrays.copyOf(ids, ids.length * 2);
+            ids[count++] = style;
+            byId = ids;
+            styles.put(key, style);
+            return style;
+        }
+    }
+
+    boolean fontsAlmostEqual(Style a, Style b)
+    {
+        if (a.fontId == b.fontId)
+            return a.font.length() / 3 > 0;
+        long key = a.fontId < b.fontId
+                ? (long) a.fontId << 32 | b.fontId
+                : (long) b.fontId << 32 | a.fontId;
+        return fontsAlmostEqual.computeIfAbsent(key, k -> {
+            metrics.levenshtein.increment();
+            int diff = StringUtils.getLevenshteinDistance(a.font, b.font);
+            int maxLen = max(a.font.length(), b.font.length());
+            return diff < maxLen / 3;
+        });
+    }
+}
@@ -1,6 +1,9 @@
 package com.github.igor_anferov.PDFparser;
 
+import java.awt.*;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 public class Table extends Block {
@@ -9,4 +12,16 @@ public class Table extends Block {
         sons = table.stream().map(Row::new).collect(Collectors.toList());
         type.type = Type.Table;
     }
+
+    @Override
+    public Map<Integer, Rectangle.Float> GetRenderRegions() {
+        Map<Integer, Rectangle.Float> regions = new TreeMap<>();
+        for (Block row : sons)
+            for (Block cell : row.sons)
+                cell.GetRenderRegions().forEach((page, region) -> regions.merge(page, region, (a, b) -> {
+                    Rectangle.Float.union(a, b, a);
+                    return a;
+                }));
+        return regions;
+    }
 }
@@ -0,0 +1,179 @@
+package com.github.igor_anferov.PDFparser;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class XmlDocumentWriter implements Closeable, Flushable {
+    private static final String INDENT = "    ";
+
+    private final Writer out;
+    private boolean blocksStarted = false;
+
+    XmlDocumentWriter(OutputStream out)
+    {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    public static void write(Document document, File file) throws IOException
+    {
+        try (XmlDocumentWriter writer = new XmlDocumentWriter(new FileOutputStream(file))) {
+            writer.write(document);
+        }
+    }
+
+    public void write(Document document) throws IOException
+    {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+        if (document.name == null && document.hierarchy == null) {
+            out.write("<document/>\n");
+            return;
+        }
+        out.write("<document>\n");
+        if (document.name != null)
+            writeTextElement("name", document.name, 1);
+        if (document.hierarchy != null)
+            writeBlocks("blocks", "block", document.hierarchy, 1);
+        out.write("</document>\n");
+    }
+
+    public void startDocument(String name) throws IOException
+    {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+        out.write("<document>\n");
+        if (name != null)
+            writeTextElement("name", name, 1);
+    }
+
+    public void writeBlock(Block block) throws IOException
+    {
+        if (!blocksStarted) {
+            indent(1);
+            out.write("<blocks>\n");
+            blocksStarted = true;
+        }
+        writeBlock("block", block, 2);
+    }
+
+    public void endDocument() throws IOException
+    {
+        indent(1);
+        out.write(blocksStarted ? "</blocks>\n" : "<blocks/>\n");
+        out.write("</document>\n");
+    }
+
+    private void writeBlocks(String wrapper, String element, List<Block> blocks, int depth) throws IOException
+    {
+        indent(depth);
+        if (blocks.isEmpty()) {
+            out.write('<');
+            out.write(wrapper);
+            out.write("/>\n");
+            return;
+        }
+        out.write('<');
+        out.write(wrapper);
+        out.write(">\n");
+        for (Block block : blocks)
+            writeBlock(element, block, depth + 1);
+        indent(depth);
+        out.write("</");
+        out.write(wrapper);
+        out.write(">\n");
+    }
+
+    private void writeBlock(String element, Block block, int depth) throws IOException
+    {
+        indent(depth);
+        out.write('<');
+        out.write(element);
+        if (block.type != null && block.type.type != null)
+            writeAttribute("type", block.type.type.name());
+        if (block.alignment != null)
+            writeAttribute("alignment", block.alignment.name());
+        boolean hasLines = block.lines != null && !block.lines.isEmpty();
+        if (!hasLines && block.sons == null) {
+            out.write("/>\n");
+            return;
+        }
+        out.write(">\n");
+        if (hasLines)
+            for (Line line : block.lines)
+                writeTextElement("text", line.text, depth + 1);
+        if (block.sons != null)
+            writeBlocks("subBlocks", "subBlock", block.sons, depth + 1);
+        indent(depth);
+        out.write("</");
+        out.write(element);
+        out.write(">\n");
+    }
+
+    private void writeTextElement(String element, String text, int depth) throws IOException
+    {
+        indent(depth);
+        out.write('<');
+        out.write(element);
+        out.write('>');
+        writeEscaped(text, false);
+        out.write("</");
+        out.write(element);
+        out.write(">\n");
+    }
+
+    private void writeAttribute(String name, String value) throws IOException
+    {
+        out.write(' ');
+        out.write(name);
+        out.write("=\"");
+        writeEscaped(value, true);
+        out.write('"');
+    }
+
+    private void writeEscaped(String text, boolean attribute) throws IOException
+    {
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            String replacement;
+            switch (text.charAt(i)) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = attribute ? "&quot;" : null;
+                    break;
+                default:
+                    replacement = null;
+            }
+            if (replacement == null)
+                continue;
+            out.write(text, start, i - start);
+            out.write(replacement);
+            start = i + 1;
+        }
+        out.write(text, start, text.length() - start);
+    }
+
+    private void indent(int depth) throws IOException
+    {
+        for (int i = 0; i < depth; i++)
+            out.write(INDENT);
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        out.close();
+    }
+}